@@ -1,28 +1,137 @@
 package sample;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import spark.Filter;
 import spark.Request;
+import spark.Response;
 import spark.ResponseTransformer;
+import spark.StreamingResponseTransformer;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class Json {
 
 	static ObjectMapper objectMapper;
 
+	/** Route result telling the transformers that the body has already been written. */
+	private static final Object WRITTEN = new Object();
+
+	/** writes one value after the other into the same generator, leaving the flushing to the generator */
+	private static ObjectWriter streamingWriter;
+
+	/**
+	 * Readers and writers bound to one type, built once per type. They resolve the root deserializer or serializer
+	 * up front, which the generic {@link ObjectMapper} calls look up again on every value.
+	 */
+	private static final ClassValue<ObjectReader> readers = new ClassValue<ObjectReader>() {
+
+		@Override
+		protected ObjectReader computeValue(Class<?> type) {
+			return objectMapper.readerFor(type);
+		}
+	};
+
+	private static final ClassValue<ObjectWriter> writers = new ClassValue<ObjectWriter>() {
+
+		@Override
+		protected ObjectWriter computeValue(Class<?> type) {
+			return streamingWriter.forType(type);
+		}
+	};
+
+	/** writers for {@code List}s of the element type */
+	private static final ClassValue<ObjectWriter> listWriters = new ClassValue<ObjectWriter>() {
+
+		@Override
+		protected ObjectWriter computeValue(Class<?> elementType) {
+			return streamingWriter.forType(objectMapper.getTypeFactory().constructCollectionType(List.class, elementType));
+		}
+	};
+
 	static {
 		objectMapper = new ObjectMapper();
+		streamingWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 	}
 
+	static ObjectReader readerFor(Class<?> type) {
+		return readers.get(type);
+	}
+
+	static ObjectWriter writerFor(Object model) {
+		return model == null ? streamingWriter : writers.get(model.getClass());
+	}
+
+	/**
+	 * Sets the JSON content type unless the route has already chosen one.
+	 */
 	public static Filter addJsonHeader() {
-		return (request, response) -> response.header("Content-Type", "application/json");
+		return (request, response) -> {
+			if (response.type() == null) {
+				response.header("Content-Type", "application/json");
+			}
+		};
 	}
 
+	/**
+	 * Parses the body from its bytes, so it is neither decoded into a {@code String} nor re-encoded by the parser.
+	 * The encoding is detected from the bytes as JSON allows, the charset of the request is not used.
+	 */
 	public static <T> T parse(Request request, Class<T> resultClass) {
 		try {
-			return objectMapper.readValue(request.body(), resultClass);
+			return readerFor(resultClass).readValue(request.bodyAsBytes());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static <T> T parse(byte[] json, Class<T> resultClass) {
+		try {
+			return readerFor(resultClass).readValue(json);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Parses a JSON array from the request input stream one element at a time and hands the elements over in
+	 * chunks, so the parsed elements are never held in memory as a whole. The raw body may still be: under embedded
+	 * Jetty Spark's request wrapper buffers every body that is neither chunked nor multipart before the route sees
+	 * it, only chunked bodies are really streamed. Chunks handed over before a parse error are not taken back.
+	 *
+	 * @return the number of elements parsed
+	 */
+	public static <T> int parseArray(Request request, Class<T> elementClass, int chunkSize, Consumer<List<T>> chunkConsumer) {
+		try (JsonParser parser = objectMapper.getFactory().createParser(request.raw().getInputStream())) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "Expected a JSON array");
+			}
+			ObjectReader reader = readerFor(elementClass);
+			int count = 0;
+			List<T> chunk = new ArrayList<>(chunkSize);
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				chunk.add(reader.readValue(parser));
+				count++;
+				if (chunk.size() == chunkSize) {
+					chunkConsumer.accept(chunk);
+					chunk = new ArrayList<>(chunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				chunkConsumer.accept(chunk);
+			}
+			return count;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -32,16 +141,101 @@ public class Json {
 
 		@Override
 		public String render(Object model) throws Exception {
-			return objectMapper.writeValueAsString(model);
+			if (model == WRITTEN) {
+				return "";
+			}
+			return writerFor(model).writeValueAsString(model);
+		}
+	}
+
+	/**
+	 * Writes the route result straight into the servlet output stream. The generator encodes into a buffer that
+	 * Jackson recycles per thread and flushes to the stream whenever it is full, so neither a {@code String} nor a
+	 * byte array of the whole body is built.
+	 */
+	public static class StreamingJsonTransformer implements StreamingResponseTransformer {
+
+		@Override
+		public void render(Object model, Response response) throws IOException {
+			if (model == WRITTEN) {
+				return;
+			}
+			HttpServletResponse raw = response.raw();
+			if (raw.getContentType() == null) {
+				raw.setContentType("application/json");
+			}
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(raw.getOutputStream())) {
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				writerFor(model).writeValue(generator, model);
+			}
 		}
 	}
 
 	public static String encode(Object model) {
 		try {
-			return objectMapper.writeValueAsString(model);
+			return writerFor(model).writeValueAsString(model);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static byte[] encodeAsBytes(Object model) {
+		try {
+			return writerFor(model).writeValueAsBytes(model);
 		} catch (JsonProcessingException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Encodes a list with the writer for lists of {@code elementType}, which also knows the serializer of the
+	 * elements up front.
+	 */
+	public static <T> byte[] encodeAsBytes(List<? extends T> models, Class<T> elementType) {
+		try {
+			return listWriters.get(elementType).writeValueAsBytes(models);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Streams the models as newline delimited JSON straight to the servlet output stream. Only the generator buffer
+	 * is held in memory, no matter how many models there are. Routes return the result so that
+	 * the transformers do not render a body of their own.
+	 */
+	public static Object writeLines(Response response, Iterable<?> models) throws IOException {
+		HttpServletResponse raw = response.raw();
+		raw.setContentType("application/x-ndjson");
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(raw.getOutputStream())) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.setRootValueSeparator(null);
+			for (Object model : models) {
+				writerFor(model).writeValue(generator, model);
+				generator.writeRaw('\n');
+			}
+		}
+		return WRITTEN;
+	}
+
+	/**
+	 * Writes already encoded JSON straight to the servlet output stream. Routes return the result so that
+	 * the transformers do not render a body of their own.
+	 */
+	public static Object write(Response response, byte[] json) throws IOException {
+		return write(response, json, "application/json");
+	}
+
+	/**
+	 * Like {@link #write(Response, byte[])} for bodies of any content type.
+	 */
+	public static Object write(Response response, byte[] body, String contentType) throws IOException {
+		HttpServletResponse raw = response.raw();
+		// the headers have to be set before the body, the after filters may run too late
+		raw.setContentType(contentType);
+		raw.setContentLength(body.length);
+		raw.getOutputStream().write(body);
+		return WRITTEN;
+	}
+
 }
@@ -24,7 +24,7 @@ public class SparkApplication implements spark.servlet.SparkApplication {
 	}
 
 	private void configureRoutes(Injector injector) {
-		SparkBuilder.defaultResponseTransformer(new Json.JsonTransformer());
+		SparkBuilder.defaultResponseTransformer(new Json.StreamingJsonTransformer());
 
 		SparkBuilder.before("/*", (q, a) -> LOG.info("{} {}", q.requestMethod(), q.pathInfo()));
 		SparkBuilder.path("/hello", injector.getInstance(BikeRoutes.class).routes());
@@ -0,0 +1,42 @@
+package sample;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the value computed for the latest version of some data, so it is only computed again once the data has
+ * changed.
+ */
+public class VersionedCache<T> {
+
+	private final AtomicReference<Entry<T>> entry = new AtomicReference<>();
+
+	/**
+	 * @param version identifies the data the value is computed from, has to grow with every change
+	 * @param compute computes the value for exactly that version
+	 */
+	public T get(long version, Supplier<T> compute) {
+		Entry<T> current = entry.get();
+		if (current != null && current.version == version) {
+			return current.value;
+		}
+		Entry<T> computed = new Entry<>(version, compute.get());
+		// never replace the entry of a newer version computed concurrently
+		while ((current == null || current.version < version) && !entry.compareAndSet(current, computed)) {
+			current = entry.get();
+		}
+		return computed.value;
+	}
+
+	private static final class Entry<T> {
+
+		final long version;
+
+		final T value;
+
+		Entry(long version, T value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package sample.bikes;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+	private final int created;
+
+	private final String error;
+
+	public BatchResult(int created) {
+		this(created, null);
+	}
+
+	/**
+	 * @param error why the batch stopped after {@code created} bikes, null if all bikes were created
+	 */
+	public BatchResult(int created, String error) {
+		this.created = created;
+		this.error = error;
+	}
+
+	public int getCreated() {
+		return created;
+	}
+
+	public String getError() {
+		return error;
+	}
+}
@@ -0,0 +1,132 @@
+package sample.bikes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Statistics over the names of a snapshot of bikes, computed in a single fork/join pass.
+ */
+public class BikeAggregates {
+
+	/** below this many bikes a task counts them itself instead of splitting */
+	static final int SPLIT_THRESHOLD = 4096;
+
+	private final Map<String, Long> countsByName;
+
+	private final SortedMap<Integer, Long> nameLengths;
+
+	private final List<NameCount> byCount;
+
+	private BikeAggregates(Counts counts) {
+		countsByName = Collections.unmodifiableMap(counts.byName);
+		nameLengths = Collections.unmodifiableSortedMap(new TreeMap<>(counts.byLength));
+		List<NameCount> byCount = new ArrayList<>(counts.byName.size());
+		counts.byName.forEach((name, count) -> byCount.add(new NameCount(name, count)));
+		byCount.sort(Comparator.comparingLong(NameCount::getCount).reversed().thenComparing(NameCount::getName));
+		this.byCount = Collections.unmodifiableList(byCount);
+	}
+
+	static BikeAggregates of(List<Bike> bikes) {
+		return new BikeAggregates(ForkJoinPool.commonPool().invoke(new CountTask(bikes, 0, bikes.size())));
+	}
+
+	/**
+	 * @return the number of bikes per name, bikes without a name are left out
+	 */
+	public Map<String, Long> getCountsByName() {
+		return countsByName;
+	}
+
+	/**
+	 * @return the number of bikes per name length in characters, ordered by length
+	 */
+	public SortedMap<Integer, Long> getNameLengths() {
+		return nameLengths;
+	}
+
+	/**
+	 * @return the {@code k} most frequent names, names with the same count ordered alphabetically
+	 */
+	public List<NameCount> top(int k) {
+		return byCount.subList(0, Math.min(k, byCount.size()));
+	}
+
+	public static class NameCount {
+
+		private final String name;
+
+		private final long count;
+
+		NameCount(String name, long count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	private static final class Counts {
+
+		final Map<String, Long> byName = new HashMap<>();
+
+		final Map<Integer, Long> byLength = new HashMap<>();
+
+		Counts mergeInto(Counts larger) {
+			byName.forEach((name, count) -> larger.byName.merge(name, count, Long::sum));
+			byLength.forEach((length, count) -> larger.byLength.merge(length, count, Long::sum));
+			return larger;
+		}
+	}
+
+	private static final class CountTask extends RecursiveTask<Counts> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Bike> bikes;
+
+		private final int from;
+
+		private final int to;
+
+		CountTask(List<Bike> bikes, int from, int to) {
+			this.bikes = bikes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Counts compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				Counts counts = new Counts();
+				for (Bike bike : bikes.subList(from, to)) {
+					String name = bike.getName();
+					if (name != null) {
+						counts.byName.merge(name, 1L, Long::sum);
+						counts.byLength.merge(name.length(), 1L, Long::sum);
+					}
+				}
+				return counts;
+			}
+			int middle = (from + to) >>> 1;
+			CountTask left = new CountTask(bikes, from, middle);
+			left.fork();
+			Counts right = new CountTask(bikes, middle, to).compute();
+			Counts joined = left.join();
+			return joined.byName.size() < right.byName.size() ? joined.mergeInto(right) : right.mergeInto(joined);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package sample.bikes;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-poll view of the {@link BikeCreated} events, so clients can wait for new bikes instead of polling the list.
+ * <p>
+ * The async event bus delivers events in no particular order, so they only wake up the waiting subscribers, who
+ * then read their page from the snapshot. That makes every subscriber buffer a single slot: a subscriber that is
+ * already woken up simply drops further events, and a slow subscriber can never hold up the bus or pile up
+ * memory.
+ */
+@Singleton
+public class BikeChangeFeed {
+
+	private final Set<BlockingQueue<BikeCreated>> subscribers = ConcurrentHashMap.newKeySet();
+
+	private final BikeService bikeService;
+
+	@Inject
+	public BikeChangeFeed(BikeService bikeService, AsyncEventBus eventBus) {
+		this.bikeService = bikeService;
+		eventBus.register(this);
+	}
+
+	@Subscribe
+	public void onCreated(BikeCreated event) {
+		for (BlockingQueue<BikeCreated> subscriber : subscribers) {
+			subscriber.offer(event);
+		}
+	}
+
+	/**
+	 * @return up to {@code limit} bikes with an id greater than {@code afterId}, waits up to {@code waitMillis} for
+	 * the first one if there is none yet
+	 */
+	public List<Bike> await(int afterId, int limit, long waitMillis) throws InterruptedException {
+		List<Bike> page = bikeService.findPage(afterId, limit);
+		if (!page.isEmpty() || waitMillis <= 0) {
+			return page;
+		}
+		BlockingQueue<BikeCreated> subscriber = new ArrayBlockingQueue<>(1);
+		subscribers.add(subscriber);
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+			// subscribed before looking again, so no bike created in between can be missed
+			page = bikeService.findPage(afterId, limit);
+			while (page.isEmpty()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || subscriber.poll(remaining, TimeUnit.NANOSECONDS) == null) {
+					break;
+				}
+				page = bikeService.findPage(afterId, limit);
+			}
+			return page;
+		} finally {
+			subscribers.remove(subscriber);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package sample.bikes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a list of bikes for callers that do not need JSON, served as {@link #MEDIA_TYPE}.
+ * <p>
+ * The list is the number of bikes followed by the bikes, each its id, the length of its UTF-8 encoded name plus one
+ * (0 for a bike without a name) and the name. All numbers are unsigned varints, seven bits per byte with the high
+ * bit set on all but the last byte, so small ids take a single byte and there are no quotes, keys or separators.
+ */
+public final class BikeCodec {
+
+	public static final String MEDIA_TYPE = "application/x-bike-list";
+
+	private BikeCodec() {
+	}
+
+	public static byte[] encode(List<Bike> bikes) {
+		Output output = new Output(bikes.size() * 16 + 5);
+		output.writeVarint(bikes.size());
+		for (Bike bike : bikes) {
+			String name = bike.getName();
+			output.writeVarint(bike.getId());
+			if (name == null) {
+				output.writeVarint(0);
+			} else {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				output.writeVarint(bytes.length + 1);
+				output.write(bytes);
+			}
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the bytes are not an encoded list
+	 */
+	public static List<Bike> decode(byte[] encoded) {
+		Input input = new Input(encoded);
+		int size = input.readVarint();
+		if (size < 0) {
+			throw new IllegalArgumentException("Negative size " + size);
+		}
+		// every bike takes at least two bytes, so a broken size cannot make us allocate much
+		List<Bike> bikes = new ArrayList<>(Math.min(size, encoded.length / 2));
+		for (int i = 0; i < size; i++) {
+			int id = input.readVarint();
+			int nameLength = input.readVarint();
+			Bike bike = new Bike(nameLength == 0 ? null : input.readString(nameLength - 1));
+			bike.id = id;
+			bikes.add(bike);
+		}
+		if (input.position != encoded.length) {
+			throw new IllegalArgumentException("Trailing bytes after " + size + " bikes");
+		}
+		return bikes;
+	}
+
+	private static final class Output {
+
+		private byte[] bytes;
+
+		private int size;
+
+		Output(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void writeVarint(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7f) != 0) {
+				bytes[size++] = (byte) (value & 0x7f | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		void write(byte[] value) {
+			ensureCapacity(value.length);
+			System.arraycopy(value, 0, bytes, size, value.length);
+			size += value.length;
+		}
+
+		private void ensureCapacity(int more) {
+			if (size + more > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(size + more, bytes.length * 2));
+			}
+		}
+
+		byte[] toByteArray() {
+			return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+		}
+	}
+
+	private static final class Input {
+
+		private final byte[] bytes;
+
+		private int position;
+
+		Input(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		int readVarint() {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				if (position == bytes.length) {
+					throw new IllegalArgumentException("Truncated varint at " + position);
+				}
+				byte b = bytes[position++];
+				value |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Varint longer than 5 bytes at " + position);
+		}
+
+		String readString(int length) {
+			if (length < 0 || length > bytes.length - position) {
+				throw new IllegalArgumentException("Truncated name at " + position);
+			}
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package sample.bikes;
+
+/**
+ * Posted on the event bus after a new bike has been stored, as a hint that there is something new to read. A batch of
+ * bikes is announced by a single event for its last bike.
+ * <p>
+ * With several stripes the bike may not be visible yet when the event arrives, snapshots end at the shortest stripe
+ * and another writer may still be appending below the id of the bike. Receivers have to read what is new from a
+ * snapshot, e.g. with {@link BikeService#findChangesSince(long)}, instead of relying on the bike of the event.
+ */
+public class BikeCreated {
+
+	private final Bike bike;
+
+	public BikeCreated(Bike bike) {
+		this.bike = bike;
+	}
+
+	public Bike getBike() {
+		return bike;
+	}
+}
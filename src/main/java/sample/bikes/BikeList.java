@@ -0,0 +1,15 @@
+package sample.bikes;
+
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of bikes ordered by id, the bikes of one stripe of a {@link BikeService}.
+ */
+interface BikeList extends List<Bike>, RandomAccess {
+
+	/**
+	 * @return a new list with the bike appended, this list is left unchanged
+	 */
+	BikeList append(Bike bike);
+}
@@ -0,0 +1,176 @@
+package sample.bikes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of created bikes, written through a memory-mapped file.
+ * <p>
+ * Every record is {@code [int length][int crc32][int id][int nameLength][name as UTF-8]}, where {@code length}
+ * counts the bytes after the crc and {@code nameLength} is -1 for a missing name. The mapped region is larger than
+ * the data, so the log ends at the first zero length. A record with a bad checksum is a torn write from a crash;
+ * replay stops there and the next append overwrites it.
+ */
+public class BikeLog implements Closeable {
+
+	public enum Fsync {
+		/** force the mapped pages to disk before every append returns */
+		PER_WRITE,
+		/** force the mapped pages to disk from a background thread at a fixed interval */
+		GROUP_COMMIT,
+		/** leave writing back the dirty pages to the operating system */
+		OS
+	}
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int BODY_PREFIX_SIZE = 8;
+
+	private static final int INITIAL_MAPPED_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+
+	private final Fsync fsync;
+
+	private final ScheduledExecutorService groupCommit;
+
+	private volatile MappedByteBuffer buffer;
+
+	private volatile boolean dirty;
+
+	private int position;
+
+	BikeLog(Path file, Fsync fsync, long groupCommitMillis) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.fsync = fsync;
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_MAPPED_SIZE, channel.size()));
+		if (fsync == Fsync.GROUP_COMMIT) {
+			groupCommit = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "bike-log-group-commit");
+				thread.setDaemon(true);
+				return thread;
+			});
+			groupCommit.scheduleWithFixedDelay(this::forceIfDirty, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+		} else {
+			groupCommit = null;
+		}
+	}
+
+	public static BikeLog open(Path file, Fsync fsync, long groupCommitMillis) {
+		try {
+			return new BikeLog(file, fsync, groupCommitMillis);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Feeds every intact record to the consumer in the order it was appended and positions the log after the
+	 * last one. Has to be called once before the first {@link #append(Bike)}.
+	 */
+	public synchronized void replay(Consumer<Bike> consumer) {
+		ByteBuffer view = buffer.duplicate();
+		CRC32 crc = new CRC32();
+		int next = 0;
+		while (next + HEADER_SIZE + BODY_PREFIX_SIZE <= view.capacity()) {
+			int length = view.getInt(next);
+			if (length < BODY_PREFIX_SIZE || next + HEADER_SIZE + length > view.capacity()) {
+				break;
+			}
+			view.limit(next + HEADER_SIZE + length).position(next + HEADER_SIZE);
+			crc.reset();
+			crc.update(view);
+			view.limit(view.capacity());
+			if ((int) crc.getValue() != view.getInt(next + 4)) {
+				break;
+			}
+			int nameLength = view.getInt(next + HEADER_SIZE + 4);
+			String name = null;
+			if (nameLength >= 0) {
+				byte[] nameBytes = new byte[nameLength];
+				view.position(next + HEADER_SIZE + BODY_PREFIX_SIZE);
+				view.get(nameBytes);
+				name = new String(nameBytes, StandardCharsets.UTF_8);
+			}
+			Bike bike = new Bike(name);
+			bike.id = view.getInt(next + HEADER_SIZE);
+			consumer.accept(bike);
+			next += HEADER_SIZE + length;
+		}
+		position = next;
+	}
+
+	public synchronized void append(Bike bike) {
+		byte[] name = bike.name == null ? null : bike.name.getBytes(StandardCharsets.UTF_8);
+		int length = BODY_PREFIX_SIZE + (name == null ? 0 : name.length);
+		ensureCapacity(HEADER_SIZE + length);
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + HEADER_SIZE);
+		view.putInt(bike.id);
+		view.putInt(name == null ? -1 : name.length);
+		if (name != null) {
+			view.put(name);
+		}
+		view.flip().position(position + HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(view);
+		view.limit(view.capacity());
+		view.putInt(position + 4, (int) crc.getValue());
+		// the length goes last, it is what makes the record visible to replay
+		view.putInt(position, length);
+		position += HEADER_SIZE + length;
+
+		if (fsync == Fsync.PER_WRITE) {
+			buffer.force();
+		} else {
+			dirty = true;
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if ((long) position + required <= buffer.capacity()) {
+			return;
+		}
+		long size = buffer.capacity();
+		while (size < (long) position + required) {
+			size *= 2;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Bike log is full");
+		}
+		try {
+			// pages written through the old mapping belong to the same file, so nothing has to be copied
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void forceIfDirty() {
+		if (dirty) {
+			dirty = false;
+			buffer.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (groupCommit != null) {
+			groupCommit.shutdownNow();
+		}
+		buffer.force();
+		channel.close();
+	}
+}
@@ -2,15 +2,63 @@ package sample.bikes;
 
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 
+import java.nio.file.Paths;
 import java.util.concurrent.Executors;
 
 public class BikeModule extends AbstractModule {
 
+	/** JDBC URL of an embedded H2 database to keep the bikes in, takes precedence over {@link #DIRECTORY_PROPERTY} */
+	static final String JDBC_URL_PROPERTY = "bikes.jdbcUrl";
+
+	static final String JDBC_MAX_CONNECTIONS_PROPERTY = "bikes.jdbcMaxConnections";
+
+	/** directory of the bike snapshots and logs, bikes are kept in memory only if neither this nor a JDBC URL is set */
+	static final String DIRECTORY_PROPERTY = "bikes.dir";
+
+	/** one of {@link BikeLog.Fsync}, defaults to GROUP_COMMIT */
+	static final String FSYNC_PROPERTY = "bikes.log.fsync";
+
+	static final String GROUP_COMMIT_MILLIS_PROPERTY = "bikes.log.groupCommitMillis";
+
+	static final String SNAPSHOT_INTERVAL_SECONDS_PROPERTY = "bikes.snapshotIntervalSeconds";
+
+	/** number of stripes of the bike store, defaults to the number of processors */
+	static final String STRIPES_PROPERTY = "bikes.stripes";
+
+	/** keeps the bikes outside of the heap if true */
+	static final String OFF_HEAP_PROPERTY = "bikes.offHeap";
+
 	@Override
 	protected void configure() {
-		bind(BikeService.class);
 		AsyncEventBus eventBus = new AsyncEventBus(Executors.newFixedThreadPool(5));
 		bind(AsyncEventBus.class).toInstance(eventBus);
 	}
+
+	@Provides
+	@Singleton
+	BikeRepository bikeRepository() {
+		String jdbcUrl = System.getProperty(JDBC_URL_PROPERTY);
+		if (jdbcUrl != null) {
+			return JdbcBikeRepository.open(jdbcUrl, Integer.getInteger(JDBC_MAX_CONNECTIONS_PROPERTY, 10));
+		}
+		String directory = System.getProperty(DIRECTORY_PROPERTY);
+		if (directory == null) {
+			return new InMemoryBikeRepository();
+		}
+		BikeLog.Fsync fsync = BikeLog.Fsync.valueOf(System.getProperty(FSYNC_PROPERTY, BikeLog.Fsync.GROUP_COMMIT.name()));
+		long groupCommitMillis = Long.getLong(GROUP_COMMIT_MILLIS_PROPERTY, 10);
+		return BikeStorage.open(Paths.get(directory), fsync, groupCommitMillis);
+	}
+
+	@Provides
+	@Singleton
+	BikeService bikeService(BikeRepository repository, AsyncEventBus eventBus) {
+		int stripes = Integer.getInteger(STRIPES_PROPERTY, BikeService.DEFAULT_STRIPES);
+		BikeService bikeService = new BikeService(repository, eventBus, stripes, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+		repository.scheduleCheckpoints(bikeService::checkpoint, Long.getLong(SNAPSHOT_INTERVAL_SECONDS_PROPERTY, 300));
+		return bikeService;
+	}
 }
@@ -0,0 +1,69 @@
+package sample.bikes;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Where a {@link BikeService} keeps its bikes beyond its own memory. The service serves all reads from memory, a
+ * repository only has to hand the bikes back on startup and take the new ones.
+ */
+public interface BikeRepository extends Closeable {
+
+	/**
+	 * A hint for the service: false if {@link #append(List)} keeps the bikes nowhere, then the service may skip it
+	 * and hand out ids without taking any lock. Repositories still have to accept the calls.
+	 */
+	default boolean isPersistent() {
+		return true;
+	}
+
+	/**
+	 * Feeds all stored bikes to the consumer, in id order. Called once before the first {@link #append(List)}.
+	 */
+	void load(Consumer<Bike> consumer);
+
+	/**
+	 * Stores the bikes, which have consecutive ids following the last stored one. Calls are serialized by the
+	 * service.
+	 *
+	 * @throws PartialAppendException if only some of the bikes could be stored
+	 */
+	void append(List<Bike> bikes);
+
+	/**
+	 * Gives the repository a chance to compact what it has stored. Called under the same lock as
+	 * {@link #append(List)} with all bikes appended so far.
+	 */
+	default CompletableFuture<Void> checkpoint(List<Bike> bikes) {
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Runs the checkpoint of the service regularly, if the repository has a use for it, and reports when the
+	 * future it returns fails.
+	 */
+	default void scheduleCheckpoints(Supplier<CompletableFuture<Void>> checkpoint, long intervalSeconds) {
+	}
+
+	/**
+	 * Thrown by {@link #append(List)} if the bikes before {@link #getStored()} are stored and the others are not.
+	 */
+	class PartialAppendException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int stored;
+
+		public PartialAppendException(int stored, Throwable cause) {
+			super("Stored " + stored + " bikes before failing", cause);
+			this.stored = stored;
+		}
+
+		public int getStored() {
+			return stored;
+		}
+	}
+}
@@ -1,24 +1,360 @@
 package sample.bikes;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import sample.Json;
+import sample.VersionedCache;
+import spark.Request;
+import spark.Response;
 import spark.RouteGroup;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
 import static spark.SparkBuilder.after;
 import static spark.SparkBuilder.get;
+import static spark.SparkBuilder.halt;
 import static spark.SparkBuilder.post;
 
 public class BikeRoutes {
 
+	static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+	/** the version a list was read at, pass it as {@code asOf} to read further pages from the same version */
+	static final String VERSION_HEADER = "X-Bike-Version";
+
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	/** set on a response that was stored for the idempotency key and not created again */
+	static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+	private static final int CHANGES_DEFAULT_LIMIT = 100;
+
+	private static final int IDEMPOTENCY_KEYS = 10_000;
+
+	private static final int TOP_NAMES_DEFAULT_K = 10;
+
+	/**
+	 * sort keys without an index, served by {@link BikeService#findTop(List, Comparator, int)}, bikes without the key
+	 * go last and ties are broken by id in either direction, like for the indexed keys
+	 */
+	private static final Map<String, Function<Bike, Integer>> UNINDEXED_KEYS = ImmutableMap.of(
+		"nameLength", bike -> bike.getName() == null ? null : bike.getName().length());
+
+	private static final long IDEMPOTENCY_KEY_TTL_MINUTES = 60;
+
+	private static final int BATCH_CHUNK_SIZE = 1000;
+
+	private static final int CHANGES_MAX_WAIT_MILLIS = 60_000;
+
+	/** tells apart versions of different service instances, e.g. after a restart without persistence */
+	private static final String ETAG_PREFIX = "\"" + Long.toHexString(System.currentTimeMillis()) + "-";
+
 	@Inject
 	private BikeService bikeService;
 
+	@Inject
+	private BikeChangeFeed changeFeed;
+
+	private final VersionedCache<byte[]> allBikesJson = new VersionedCache<>();
+
+	private final VersionedCache<byte[]> allBikesBinary = new VersionedCache<>();
+
+	private final VersionedCache<BikeAggregates> aggregates = new VersionedCache<>();
+
+	/** responses by idempotency key, a retry waits here while the first request is still creating */
+	private final Cache<String, Created> createdByIdempotencyKey = CacheBuilder.newBuilder()
+		.maximumSize(IDEMPOTENCY_KEYS)
+		.expireAfterWrite(IDEMPOTENCY_KEY_TTL_MINUTES, TimeUnit.MINUTES)
+		.build();
+
 	public RouteGroup routes() {
 		return () -> {
 			after(Json.addJsonHeader());
-			get("", (request, response) -> bikeService.findAll());
-			post("",
-				(request, response) -> bikeService.create(Json.parse(request, BikeView.class)));
+			// without an Accept header the first route wins, so JSON stays the default
+			get("", (request, response) -> {
+				List<Bike> bikes = findBikes(request, response, "");
+				return bikes instanceof StripedSnapshot
+					? Json.write(response, encodeAll((StripedSnapshot) bikes, allBikesJson, all -> Json.encodeAsBytes(all, Bike.class)))
+					: bikes;
+			});
+			get("", BikeCodec.MEDIA_TYPE, (request, response) -> {
+				List<Bike> bikes = findBikes(request, response, "-binary");
+				byte[] encoded = bikes instanceof StripedSnapshot
+					? encodeAll((StripedSnapshot) bikes, allBikesBinary, BikeCodec::encode)
+					: BikeCodec.encode(bikes);
+				return Json.write(response, encoded, BikeCodec.MEDIA_TYPE);
+			});
+			get("/stats/names", (request, response) -> bikeService.getNamePool());
+			get("/stats/counts", (request, response) -> aggregates().getCountsByName());
+			get("/stats/lengths", (request, response) -> aggregates().getNameLengths());
+			get("/stats/top", (request, response) -> {
+				int k = intQueryParam(request, "k", TOP_NAMES_DEFAULT_K);
+				if (k < 1) {
+					throw halt(400);
+				}
+				return aggregates().top(k);
+			});
+			get("/export", (request, response) -> Json.writeLines(response, snapshotAsOf(request, response)));
+			get("/changes", (request, response) -> {
+				int after = intQueryParam(request, "after", 0);
+				int limit = intQueryParam(request, "limit", CHANGES_DEFAULT_LIMIT);
+				int waitMillis = intQueryParam(request, "waitMillis", CHANGES_MAX_WAIT_MILLIS / 2);
+				if (limit < 1 || after < 0 || waitMillis < 0) {
+					throw halt(400);
+				}
+				List<Bike> changes = changeFeed.await(after, limit, Math.min(waitMillis, CHANGES_MAX_WAIT_MILLIS));
+				// the cursor to wait on next, even if nothing has changed
+				response.header(NEXT_CURSOR_HEADER, String.valueOf(changes.isEmpty() ? after : changes.get(changes.size() - 1).getId()));
+				return changes;
+			});
+			get("/:id", (request, response) -> {
+				Bike bike = bikeService.findById(idParam(request));
+				if (bike == null) {
+					throw halt(404);
+				}
+				return bike;
+			});
+			post("", (request, response) -> {
+				String idempotencyKey = request.headers(IDEMPOTENCY_KEY_HEADER);
+				if (idempotencyKey == null) {
+					return bikeService.create(BikeViewDecoder.decode(request.bodyAsBytes()));
+				}
+				return Json.write(response, createOnce(idempotencyKey, request, response));
+			});
+			post("/batch", (request, response) -> createBatch(request, response));
 		};
 	}
+
+	/**
+	 * Answers {@code GET /hello} with its query parameters, whatever the representation.
+	 *
+	 * @param etagSuffix tells the representations of the same version apart
+	 */
+	private List<Bike> findBikes(Request request, Response response, String etagSuffix) {
+		response.header("Vary", "Accept");
+		if (request.queryParams("since") != null) {
+			return changesSince(request, response);
+		}
+		StripedSnapshot snapshot = snapshotAsOf(request, response);
+		checkNotModified(request, response, snapshot.version() + etagSuffix);
+		String name = request.queryParams("name");
+		String namePrefix = request.queryParams("namePrefix");
+		if (name != null && namePrefix != null) {
+			throw halt(400);
+		}
+		if (name != null) {
+			return bikeService.findByName(snapshot, name);
+		}
+		if (namePrefix != null) {
+			return bikeService.findByNamePrefix(snapshot, namePrefix);
+		}
+		String sort = request.queryParams("sort");
+		if (sort != null) {
+			return sorted(request, snapshot, sort);
+		}
+		if (request.queryParams("limit") == null && request.queryParams("after") == null) {
+			return snapshot;
+		}
+		int after = intQueryParam(request, "after", 0);
+		int limit = intQueryParam(request, "limit", Integer.MAX_VALUE);
+		if (limit < 1 || after < 0) {
+			throw halt(400);
+		}
+		// ask for one more bike than requested to learn whether there is a next page
+		List<Bike> page = snapshot.page(after, limit == Integer.MAX_VALUE ? limit : limit + 1);
+		if (page.size() > limit) {
+			page = page.subList(0, limit);
+			response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(limit - 1).getId()));
+		}
+		return page;
+	}
+
+	/**
+	 * A snapshot holds all bikes up to its version, so its encoding is the same for every request at that version.
+	 */
+	private static byte[] encodeAll(StripedSnapshot snapshot, VersionedCache<byte[]> cache,
+		Function<StripedSnapshot, byte[]> encoder) {
+		return cache.get(snapshot.version(), () -> encoder.apply(snapshot));
+	}
+
+	/**
+	 * Answers {@code ?sort=key&limit=k}, a leading {@code -} sorts descending. Names come from the name index, ids
+	 * from their position and everything else from a bounded heap.
+	 */
+	private List<Bike> sorted(Request request, StripedSnapshot snapshot, String sort) {
+		int limit = intQueryParam(request, "limit", Integer.MAX_VALUE);
+		if (limit < 1 || request.queryParams("after") != null) {
+			throw halt(400);
+		}
+		boolean descending = sort.startsWith("-");
+		String key = descending ? sort.substring(1) : sort;
+		if (key.equals("name")) {
+			return bikeService.findSortedByName(snapshot, descending, limit);
+		}
+		if (key.equals("id")) {
+			return descending
+				? Lists.reverse(snapshot.subList(Math.max(0, snapshot.size() - limit), snapshot.size()))
+				: snapshot.page(0, limit);
+		}
+		Function<Bike, Integer> sortKey = UNINDEXED_KEYS.get(key);
+		if (sortKey == null) {
+			throw halt(400);
+		}
+		Comparator<Integer> direction = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+		Comparator<Bike> order = Comparator.comparing(sortKey, Comparator.nullsLast(direction)).thenComparing(Bike::getId);
+		return BikeService.findTop(snapshot, order, limit);
+	}
+
+	private BikeAggregates aggregates() {
+		StripedSnapshot snapshot = bikeService.snapshot();
+		return aggregates.get(snapshot.version(), () -> BikeAggregates.of(snapshot));
+	}
+
+	/**
+	 * Creates the bikes of the array chunk by chunk while it is parsed. The chunks before a malformed element are
+	 * created already, so the 400 for it tells the client how many bikes that were.
+	 */
+	private BatchResult createBatch(Request request, Response response) {
+		int[] created = new int[1];
+		try {
+			Json.parseArray(request, BikeView.class, BATCH_CHUNK_SIZE, chunk -> created[0] += bikeService.createAll(chunk));
+		} catch (RuntimeException e) {
+			if (!(e.getCause() instanceof JsonProcessingException)) {
+				throw e;
+			}
+			response.type("application/json");
+			throw halt(400, Json.encode(new BatchResult(created[0], ((JsonProcessingException) e.getCause()).getOriginalMessage())));
+		}
+		return new BatchResult(created[0]);
+	}
+
+	/**
+	 * Creates the bike of the request unless a request with the same key did before, in which case its response is
+	 * replayed. A request that reuses the key with another body is answered with 422, it cannot be a retry. Failed
+	 * creates are not stored, so they can be retried.
+	 */
+	private byte[] createOnce(String idempotencyKey, Request request, Response response) {
+		byte[] body = request.bodyAsBytes();
+		HashCode bodyHash = Hashing.sha256().hashBytes(body);
+		boolean[] created = new boolean[1];
+		Created result;
+		try {
+			result = createdByIdempotencyKey.get(idempotencyKey, () -> {
+				created[0] = true;
+				return new Created(bodyHash, Json.encodeAsBytes(bikeService.create(BikeViewDecoder.decode(body))));
+			});
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (UncheckedExecutionException e) {
+			// fail the same way as without the key, e.g. halt or a malformed body
+			throw (RuntimeException) e.getCause();
+		}
+		if (!result.bodyHash.equals(bodyHash)) {
+			throw halt(422);
+		}
+		if (!created[0]) {
+			response.header(REPLAYED_HEADER, "true");
+		}
+		return result.json;
+	}
+
+	/**
+	 * Answers {@code ?since=version} with the bikes created after that version and the version to pass next time,
+	 * or with 410 if the client has to load the full list again.
+	 */
+	private List<Bike> changesSince(Request request, Response response) {
+		int since = intQueryParam(request, "since", 0);
+		if (since < 0) {
+			throw halt(400);
+		}
+		StripedSnapshot snapshot = bikeService.snapshot();
+		List<Bike> changes = bikeService.findChangesSince(snapshot, since);
+		if (changes == null) {
+			throw halt(410);
+		}
+		response.header(VERSION_HEADER, String.valueOf(snapshot.version()));
+		return changes;
+	}
+
+	/**
+	 * @return the current snapshot or the one at the version asked for with {@code asOf}
+	 */
+	private StripedSnapshot snapshotAsOf(Request request, Response response) {
+		StripedSnapshot snapshot = bikeService.snapshot();
+		if (request.queryParams("asOf") != null) {
+			int version = intQueryParam(request, "asOf", 0);
+			if (version < 0 || version > snapshot.version()) {
+				throw halt(400);
+			}
+			snapshot = snapshot.asOf(version);
+		}
+		response.header(VERSION_HEADER, String.valueOf(snapshot.version()));
+		return snapshot;
+	}
+
+	/**
+	 * Sets a strong ETag for the given version and answers with 304 if the client already has it.
+	 */
+	private static void checkNotModified(Request request, Response response, String version) {
+		String etag = ETAG_PREFIX + version + "\"";
+		response.header("ETag", etag);
+		String ifNoneMatch = request.headers("If-None-Match");
+		if (ifNoneMatch == null) {
+			return;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			// If-None-Match uses the weak comparison
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(etag) || candidate.equals("*")) {
+				throw halt(304);
+			}
+		}
+	}
+
+	private static int idParam(Request request) {
+		try {
+			return Integer.parseInt(request.params(":id"));
+		} catch (NumberFormatException e) {
+			throw halt(404);
+		}
+	}
+
+	private static int intQueryParam(Request request, String name, int defaultValue) {
+		String value = request.queryParams(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw halt(400);
+		}
+	}
+
+	private static final class Created {
+
+		final HashCode bodyHash;
+
+		final byte[] json;
+
+		Created(HashCode bodyHash, byte[] json) {
+			this.bodyHash = bodyHash;
+			this.json = json;
+		}
+	}
 }
@@ -1,20 +1,367 @@
 package sample.bikes;
 
+import com.google.common.eventbus.EventBus;
+import com.google.inject.Singleton;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+@Singleton
 public class BikeService {
 
-	static List<Bike> dataStore = new ArrayList<>();
+	static final int DEFAULT_STRIPES = Runtime.getRuntime().availableProcessors();
+
+	/** the number of changes a delta may span, clients further behind are better off loading the cached full list */
+	static final int CHANGE_WINDOW = 10_000;
+
+	static final int NAME_POOL_CAPACITY = 1 << 16;
+
+	/**
+	 * Bikes are spread over the stripes by id, so concurrent writers mostly append to different stripes. Readers
+	 * only ever see complete snapshots and never block.
+	 */
+	private final Stripe[] stripes;
+
+	/** the number of bikes handed to the stripes so far, each one will take the next id of its stripe */
+	private final AtomicInteger tickets = new AtomicInteger();
+
+	/** the last merged snapshot, handed out again as long as no bike was added */
+	private volatile StripedSnapshot merged = StripedSnapshot.EMPTY;
+
+	/** updated by the writers before they publish the snapshot containing the new bikes */
+	private final NameIndex nameIndex = new NameIndex();
+
+	/** shares the name strings of the bikes kept on the heap, off the heap names are encoded and never kept */
+	private final NamePool namePool = new NamePool(NAME_POOL_CAPACITY);
+
+	private final boolean offHeap;
+
+	private final BikeRepository repository;
+
+	private final EventBus eventBus;
+
+	public BikeService() {
+		this(new InMemoryBikeRepository(), null);
+	}
+
+	public BikeService(BikeRepository repository, EventBus eventBus) {
+		this(repository, eventBus, DEFAULT_STRIPES, false);
+	}
+
+	/**
+	 * @param repository loaded into the store right away and appended to on every create
+	 * @param eventBus   receives a {@link BikeCreated} for every create and one for the last bike of every
+	 *                   {@link #createAll}, may be null
+	 * @param stripes    the number of stripes writers can append to in parallel
+	 * @param offHeap    whether to keep the bikes in an {@link OffHeapBikeList} instead of as objects on the heap,
+	 *                   the bikes read are views that are decoded on access then
+	 */
+	public BikeService(BikeRepository repository, EventBus eventBus, int stripes, boolean offHeap) {
+		this.repository = repository;
+		this.eventBus = eventBus;
+		this.offHeap = offHeap;
+		this.stripes = new Stripe[stripes];
+		BikeSnapshot.Builder[] builders = new BikeSnapshot.Builder[stripes];
+		BikeList[] lists = new BikeList[stripes];
+		for (int i = 0; i < stripes; i++) {
+			builders[i] = new BikeSnapshot.Builder();
+			lists[i] = offHeap ? OffHeapBikeList.empty() : null;
+		}
+		repository.load(bike -> {
+			bike.name = pooled(bike.name);
+			int stripe = (bike.id - 1) % stripes;
+			if (offHeap) {
+				lists[stripe] = lists[stripe].append(bike);
+			} else {
+				builders[stripe].add(bike);
+			}
+			nameIndex.add(bike);
+			tickets.set(bike.id);
+		});
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(i, offHeap ? lists[i] : builders[i].build());
+		}
+	}
 
 	public List<Bike> findAll() {
-		return new ArrayList<>(dataStore);
+		return snapshot();
+	}
+
+	/**
+	 * @param version as returned by {@link #version()} before, stays readable for as long as the service lives
+	 * @return the bikes as they were at that version
+	 */
+	public List<Bike> findAll(long version) {
+		return snapshot().asOf(version);
+	}
+
+	/**
+	 * A bike shows up here once all bikes with a lower id are stored as well, so readers never see gaps in the ids.
+	 *
+	 * @return the bikes with the ids from 1 up to the first one that is still being written
+	 */
+	StripedSnapshot snapshot() {
+		int size = visibleSize();
+		StripedSnapshot snapshot = merged;
+		if (snapshot.size() == size) {
+			return snapshot;
+		}
+		BikeList[] bikes = new BikeList[stripes.length];
+		for (int i = 0; i < stripes.length; i++) {
+			// may have grown since visibleSize(), which only adds bikes past size
+			bikes[i] = stripes[i].bikes;
+		}
+		snapshot = new StripedSnapshot(bikes, size);
+		merged = snapshot;
+		return snapshot;
+	}
+
+	/**
+	 * @return a number that grows with every write
+	 */
+	public long version() {
+		return visibleSize();
+	}
+
+	/**
+	 * @return up to {@code limit} bikes with an id greater than {@code afterId}, in id order
+	 */
+	public List<Bike> findPage(int afterId, int limit) {
+		return snapshot().page(afterId, limit);
+	}
+
+	/**
+	 * Looks into the stripe of the bike directly, so a bike can be found as soon as its create returned.
+	 */
+	public Bike findById(int id) {
+		if (id < 1) {
+			return null;
+		}
+		BikeList bikes = stripes[(id - 1) % stripes.length].bikes;
+		int index = (id - 1) / stripes.length;
+		return index < bikes.size() ? bikes.get(index) : null;
+	}
+
+	/**
+	 * Bikes are only ever added, so the changes after a version are the bikes created after it and the snapshot
+	 * itself is the change index.
+	 *
+	 * @return the bikes created after {@code version} in id order, or null if the caller has to load the full list
+	 * again because the version is more than {@link #CHANGE_WINDOW} changes behind or unknown to this service
+	 * @throws IllegalArgumentException if the version is negative, versions start at 0
+	 */
+	public List<Bike> findChangesSince(long version) {
+		return findChangesSince(snapshot(), version);
+	}
+
+	List<Bike> findChangesSince(StripedSnapshot snapshot, long version) {
+		if (version < 0) {
+			throw new IllegalArgumentException("Negative version " + version);
+		}
+		if (version < snapshot.version() - CHANGE_WINDOW || version > snapshot.version()) {
+			return null;
+		}
+		return snapshot.page((int) version, CHANGE_WINDOW);
+	}
+
+	/**
+	 * @return the bikes called {@code name}, in id order
+	 */
+	public List<Bike> findByName(String name) {
+		return findByName(snapshot(), name);
+	}
+
+	List<Bike> findByName(StripedSnapshot snapshot, String name) {
+		return bikes(snapshot, nameIndex.exact(name, snapshot.size()));
+	}
+
+	/**
+	 * @return the bikes with a name starting with {@code prefix}, in id order
+	 */
+	public List<Bike> findByNamePrefix(String prefix) {
+		return findByNamePrefix(snapshot(), prefix);
+	}
+
+	List<Bike> findByNamePrefix(StripedSnapshot snapshot, String prefix) {
+		return bikes(snapshot, nameIndex.prefix(prefix, snapshot.size()));
+	}
+
+	/**
+	 * Served from the name index in O(log n + limit).
+	 *
+	 * @return the first {@code limit} bikes ordered by name, bikes without a name last
+	 */
+	List<Bike> findSortedByName(StripedSnapshot snapshot, boolean descending, int limit) {
+		return bikes(snapshot, nameIndex.sortedByName(descending, snapshot.size(), limit));
+	}
+
+	/**
+	 * Fallback for orders without an index, keeps the best {@code limit} bikes in a bounded heap while scanning all
+	 * of them, which costs O(n log limit) instead of sorting everything.
+	 *
+	 * @return the first {@code limit} bikes in the given order
+	 */
+	static List<Bike> findTop(List<Bike> bikes, Comparator<Bike> order, int limit) {
+		PriorityQueue<Bike> best = new PriorityQueue<>(Math.max(1, Math.min(limit, bikes.size())), order.reversed());
+		for (Bike bike : bikes) {
+			if (best.size() < limit) {
+				best.add(bike);
+			} else if (order.compare(bike, best.peek()) < 0) {
+				best.poll();
+				best.add(bike);
+			}
+		}
+		List<Bike> top = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			top.add(best.poll());
+		}
+		Collections.reverse(top);
+		return top;
+	}
+
+	/**
+	 * @return the pool of the names kept on the heap, which stays empty for a service keeping its bikes off the heap
+	 */
+	public NamePool getNamePool() {
+		return namePool;
 	}
 
 	public BikeView create(BikeView view) {
-		Bike bike = view.toBike();
-		dataStore.add(bike);
+		Bike bike = toBike(view);
+		storeAll(Collections.singletonList(bike));
+		if (eventBus != null) {
+			eventBus.post(new BikeCreated(bike));
+		}
 		BikeView result = BikeView.of(bike);
 		return result;
 	}
+
+	/**
+	 * Stores all bikes with a single publication per stripe, e.g. for imports. A single event for the last bike
+	 * stands for the whole batch, the subscribers only take it as a hint to read the snapshot again and an import
+	 * would otherwise queue an event per bike on the bus.
+	 *
+	 * @return the number of bikes created
+	 */
+	public int createAll(List<BikeView> views) {
+		List<Bike> bikes = new ArrayList<>(views.size());
+		for (BikeView view : views) {
+			bikes.add(toBike(view));
+		}
+		storeAll(bikes);
+		if (eventBus != null && !bikes.isEmpty()) {
+			eventBus.post(new BikeCreated(bikes.get(bikes.size() - 1)));
+		}
+		return bikes.size();
+	}
+
+	/**
+	 * Lets the repository compact what it has stored, e.g. {@link BikeStorage} writes the current bikes to a binary
+	 * snapshot in the background and drops the log written before it.
+	 */
+	public synchronized CompletableFuture<Void> checkpoint() {
+		if (!repository.isPersistent()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		// with persistence the stripes are only appended to under this lock, so the snapshot holds every stored bike
+		return repository.checkpoint(snapshot());
+	}
+
+	/**
+	 * Without persistence every bike takes a ticket from a counter, which picks its stripe round robin, and gets its
+	 * id from the stripe. Writers only meet when they share a stripe and never wait for each other. Repositories
+	 * need the bikes in id order, so with persistence the ids are handed out, stored and appended to the stripes
+	 * under the lock of this service.
+	 */
+	private void storeAll(List<Bike> bikes) {
+		if (!repository.isPersistent()) {
+			appendToStripes(tickets.getAndAdd(bikes.size()), bikes);
+			return;
+		}
+		synchronized (this) {
+			int firstTicket = tickets.get();
+			for (int i = 0; i < bikes.size(); i++) {
+				bikes.get(i).id = firstTicket + i + 1;
+			}
+			int stored = 0;
+			try {
+				repository.append(bikes);
+				stored = bikes.size();
+			} catch (BikeRepository.PartialAppendException e) {
+				stored = e.getStored();
+				throw e;
+			} finally {
+				// whatever the repository stored has to be visible as well, or its ids would be handed out again
+				appendToStripes(firstTicket, bikes.subList(0, stored));
+				tickets.addAndGet(stored);
+			}
+		}
+	}
+
+	private void appendToStripes(int firstTicket, List<Bike> bikes) {
+		for (int i = 0; i < Math.min(bikes.size(), stripes.length); i++) {
+			List<Bike> stripeBikes = new ArrayList<>(bikes.size() / stripes.length + 1);
+			for (int j = i; j < bikes.size(); j += stripes.length) {
+				stripeBikes.add(bikes.get(j));
+			}
+			stripes[(firstTicket + i) % stripes.length].append(stripeBikes);
+		}
+	}
+
+	private Bike toBike(BikeView view) {
+		Bike bike = view.toBike();
+		bike.name = pooled(bike.name);
+		return bike;
+	}
+
+	private String pooled(String name) {
+		return offHeap ? name : namePool.intern(name);
+	}
+
+	private int visibleSize() {
+		int size = Integer.MAX_VALUE;
+		for (int i = 0; i < stripes.length; i++) {
+			// the first id missing from stripe i is its size * n + i + 1
+			size = Math.min(size, stripes[i].bikes.size() * stripes.length + i);
+		}
+		return size;
+	}
+
+	private static List<Bike> bikes(StripedSnapshot snapshot, int[] ids) {
+		List<Bike> bikes = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			bikes.add(snapshot.get(id - 1));
+		}
+		return bikes;
+	}
+
+	private final class Stripe {
+
+		private final int index;
+
+		private volatile BikeList bikes;
+
+		Stripe(int index, BikeList bikes) {
+			this.index = index;
+			this.bikes = bikes;
+		}
+
+		/**
+		 * Hands out the next ids of this stripe and publishes the bikes with a single write.
+		 */
+		synchronized void append(List<Bike> newBikes) {
+			BikeList snapshot = bikes;
+			for (Bike bike : newBikes) {
+				bike.id = snapshot.size() * stripes.length + index + 1;
+				nameIndex.add(bike);
+				snapshot = snapshot.append(bike);
+			}
+			bikes = snapshot;
+		}
+	}
 }
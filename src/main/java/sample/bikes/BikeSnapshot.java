@@ -0,0 +1,192 @@
+package sample.bikes;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, append-only list of bikes ordered by id.
+ * <p>
+ * Bikes live in a 32-way trie plus a tail array. {@link #append(Bike)} copies only the tail or the path from the
+ * root to the new leaf, so every older snapshot stays valid and shares all untouched nodes with the new one. That
+ * makes handing out a snapshot O(1) and a lookup by index O(log32 n).
+ */
+final class BikeSnapshot extends AbstractList<Bike> implements BikeList {
+
+	private static final int BITS = 5;
+
+	private static final int WIDTH = 1 << BITS;
+
+	private static final int MASK = WIDTH - 1;
+
+	private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+	static final BikeSnapshot EMPTY = new BikeSnapshot(0, BITS, EMPTY_NODE, new Object[0]);
+
+	private final int size;
+
+	private final int shift;
+
+	private final Object[] root;
+
+	private final Object[] tail;
+
+	private BikeSnapshot(int size, int shift, Object[] root, Object[] tail) {
+		this.size = size;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Bike get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return (Bike) leafFor(index)[index & MASK];
+	}
+
+	@Override
+	public Iterator<Bike> iterator() {
+		return new Iterator<Bike>() {
+
+			private int index;
+
+			private Object[] leaf;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Bike next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				if ((index & MASK) == 0) {
+					leaf = leafFor(index);
+				}
+				return (Bike) leaf[index++ & MASK];
+			}
+		};
+	}
+
+	@Override
+	public BikeSnapshot append(Bike bike) {
+		if (size - tailOffset() < WIDTH) {
+			Object[] newTail = new Object[tail.length + 1];
+			System.arraycopy(tail, 0, newTail, 0, tail.length);
+			newTail[tail.length] = bike;
+			return new BikeSnapshot(size + 1, shift, root, newTail);
+		}
+		Object[] newRoot;
+		int newShift = shift;
+		if ((size >>> BITS) > (1 << shift)) {
+			newRoot = new Object[WIDTH];
+			newRoot[0] = root;
+			newRoot[1] = newPath(shift, tail);
+			newShift += BITS;
+		} else {
+			newRoot = pushTail(shift, root, tail);
+		}
+		return new BikeSnapshot(size + 1, newShift, newRoot, new Object[] { bike });
+	}
+
+	/**
+	 * Collects bikes into full leaves and builds the trie bottom-up once, which is much cheaper than appending them
+	 * one by one when loading millions of bikes.
+	 */
+	static final class Builder {
+
+		private final List<Object[]> leaves = new ArrayList<>();
+
+		private Object[] leaf = new Object[WIDTH];
+
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		Builder add(Bike bike) {
+			if (size > 0 && (size & MASK) == 0) {
+				leaves.add(leaf);
+				leaf = new Object[WIDTH];
+			}
+			leaf[size & MASK] = bike;
+			size++;
+			return this;
+		}
+
+		BikeSnapshot build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			int tailLength = size - (((size - 1) >>> BITS) << BITS);
+			Object[] tail = Arrays.copyOf(leaf, tailLength);
+			List<Object[]> nodes = leaves;
+			int shift = BITS;
+			while (nodes.size() > WIDTH) {
+				nodes = parentsOf(nodes);
+				shift += BITS;
+			}
+			Object[] root = nodes.isEmpty() ? EMPTY_NODE : nodes.toArray(new Object[WIDTH]);
+			return new BikeSnapshot(size, shift, root, tail);
+		}
+
+		private static List<Object[]> parentsOf(List<Object[]> nodes) {
+			List<Object[]> parents = new ArrayList<>((nodes.size() + MASK) >>> BITS);
+			for (int i = 0; i < nodes.size(); i += WIDTH) {
+				parents.add(nodes.subList(i, Math.min(i + WIDTH, nodes.size())).toArray(new Object[WIDTH]));
+			}
+			return parents;
+		}
+	}
+
+	private int tailOffset() {
+		return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+	}
+
+	private Object[] leafFor(int index) {
+		if (index >= tailOffset()) {
+			return tail;
+		}
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return node;
+	}
+
+	private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+		int childIndex = ((size - 1) >>> level) & MASK;
+		Object[] result = parent.clone();
+		Object[] child;
+		if (level == BITS) {
+			child = tailNode;
+		} else {
+			Object[] existing = (Object[]) parent[childIndex];
+			child = existing != null ? pushTail(level - BITS, existing, tailNode) : newPath(level - BITS, tailNode);
+		}
+		result[childIndex] = child;
+		return result;
+	}
+
+	private static Object[] newPath(int level, Object[] node) {
+		if (level == 0) {
+			return node;
+		}
+		Object[] result = new Object[WIDTH];
+		result[0] = newPath(level - BITS, node);
+		return result;
+	}
+}
@@ -0,0 +1,307 @@
+package sample.bikes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Directory holding the durable state of a {@link BikeService}:
+ * <ul>
+ * <li>{@code snapshot-<lastId>.bin} with all bikes up to lastId</li>
+ * <li>{@code log-<firstId>.bin}, one {@link BikeLog} segment per checkpoint with the bikes created from firstId
+ * on</li>
+ * </ul>
+ * A snapshot is {@code [int magic][int count]} followed by {@code [int nameLength][name as UTF-8]} per bike and a
+ * trailing crc32 of everything before it. Ids are dense, so they are implied by the position. Bikes in a log that
+ * are already covered by the snapshot are skipped on load, which makes a crash between writing a snapshot and
+ * deleting the old segments harmless.
+ */
+public class BikeStorage implements BikeRepository {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BikeStorage.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x42494b53;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String LOG_PREFIX = "log-";
+
+	private static final String SUFFIX = ".bin";
+
+	private final Path directory;
+
+	private final BikeLog.Fsync fsync;
+
+	private final long groupCommitMillis;
+
+	private final ScheduledExecutorService snapshotWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "bike-snapshot-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private BikeLog log;
+
+	private int logFirstId;
+
+	BikeStorage(Path directory, BikeLog.Fsync fsync, long groupCommitMillis) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.fsync = fsync;
+		this.groupCommitMillis = groupCommitMillis;
+	}
+
+	public static BikeStorage open(Path directory, BikeLog.Fsync fsync, long groupCommitMillis) {
+		try {
+			return new BikeStorage(directory, fsync, groupCommitMillis);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Feeds the bikes of the latest snapshot and of the log segments written after it to the consumer, in id order.
+	 */
+	@Override
+	public synchronized void load(Consumer<Bike> consumer) {
+		try {
+			int[] loaded = new int[1];
+			Consumer<Bike> counting = bike -> {
+				consumer.accept(bike);
+				loaded[0]++;
+			};
+			List<Integer> snapshots = ids(SNAPSHOT_PREFIX);
+			if (!snapshots.isEmpty()) {
+				loadSnapshot(file(SNAPSHOT_PREFIX, snapshots.get(snapshots.size() - 1)), counting);
+			}
+			List<Integer> logs = ids(LOG_PREFIX);
+			for (int i = 0; i < logs.size(); i++) {
+				BikeLog segment = BikeLog.open(file(LOG_PREFIX, logs.get(i)), fsync, groupCommitMillis);
+				segment.replay(bike -> {
+					if (bike.id > loaded[0]) {
+						if (bike.id != loaded[0] + 1) {
+							throw new IllegalStateException("Bike log is out of order, expected id " + (loaded[0] + 1) + " but got " + bike.id);
+						}
+						counting.accept(bike);
+					}
+				});
+				if (i < logs.size() - 1) {
+					segment.close();
+				} else {
+					log = segment;
+					logFirstId = logs.get(i);
+				}
+			}
+			if (log == null) {
+				logFirstId = loaded[0] + 1;
+				log = BikeLog.open(file(LOG_PREFIX, logFirstId), fsync, groupCommitMillis);
+				log.replay(bike -> {
+				});
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void append(List<Bike> bikes) {
+		for (int i = 0; i < bikes.size(); i++) {
+			try {
+				log.append(bikes.get(i));
+			} catch (RuntimeException e) {
+				throw new PartialAppendException(i, e);
+			}
+		}
+	}
+
+	/**
+	 * Starts a new log segment after the given snapshot and writes the snapshot in the background. Once it is on
+	 * disk the older snapshots and segments are deleted.
+	 */
+	@Override
+	public CompletableFuture<Void> checkpoint(List<Bike> snapshot) {
+		int lastId = snapshot.size();
+		if (lastId < logFirstId) {
+			// nothing written since the last checkpoint
+			return CompletableFuture.completedFuture(null);
+		}
+		try {
+			BikeLog next = BikeLog.open(file(LOG_PREFIX, lastId + 1), fsync, groupCommitMillis);
+			next.replay(bike -> {
+			});
+			log.close();
+			log = next;
+			logFirstId = lastId + 1;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return CompletableFuture.runAsync(() -> {
+			try {
+				writeSnapshot(snapshot);
+				deleteBefore(lastId);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, snapshotWriter);
+	}
+
+	/**
+	 * Logs failures of starting the checkpoint as well as of writing its snapshot in the background, the log keeps
+	 * growing until a checkpoint succeeds.
+	 */
+	@Override
+	public void scheduleCheckpoints(Supplier<CompletableFuture<Void>> checkpoint, long intervalSeconds) {
+		snapshotWriter.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint.get().whenComplete((ignored, e) -> {
+					if (e != null) {
+						LOG.error("Writing the bike snapshot failed", e);
+					}
+				});
+			} catch (RuntimeException e) {
+				LOG.error("Bike checkpoint failed", e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	private void writeSnapshot(List<Bike> snapshot) throws IOException {
+		Path target = file(SNAPSHOT_PREFIX, snapshot.size());
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			writeSnapshot(snapshot, temporary);
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(temporary);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	private static void writeSnapshot(List<Bike> snapshot, Path temporary) throws IOException {
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+			CRC32 crc = new CRC32();
+			DataOutputStream data = new DataOutputStream(new CheckedOutputStream(out, crc));
+			data.writeInt(SNAPSHOT_MAGIC);
+			data.writeInt(snapshot.size());
+			for (Bike bike : snapshot) {
+				String bikeName = bike.getName();
+				if (bikeName == null) {
+					data.writeInt(-1);
+				} else {
+					byte[] name = bikeName.getBytes(StandardCharsets.UTF_8);
+					data.writeInt(name.length);
+					data.write(name);
+				}
+			}
+			data.flush();
+			new DataOutputStream(out).writeInt((int) crc.getValue());
+			out.flush();
+			channel.force(true);
+		}
+	}
+
+	private static void loadSnapshot(Path file, Consumer<Bike> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int end = buffer.capacity() - 4;
+			ByteBuffer body = buffer.duplicate();
+			body.limit(end);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			if (end < 8 || buffer.getInt(0) != SNAPSHOT_MAGIC || (int) crc.getValue() != buffer.getInt(end)) {
+				throw new IllegalStateException("Corrupt bike snapshot " + file);
+			}
+			int count = buffer.getInt(4);
+			buffer.position(8);
+			byte[] scratch = new byte[256];
+			for (int id = 1; id <= count; id++) {
+				int nameLength = buffer.getInt();
+				String name = null;
+				if (nameLength >= 0) {
+					if (nameLength > scratch.length) {
+						scratch = new byte[Math.max(nameLength, scratch.length * 2)];
+					}
+					buffer.get(scratch, 0, nameLength);
+					name = new String(scratch, 0, nameLength, StandardCharsets.UTF_8);
+				}
+				Bike bike = new Bike(name);
+				bike.id = id;
+				consumer.accept(bike);
+			}
+		}
+	}
+
+	private void deleteBefore(int lastId) throws IOException {
+		for (int id : ids(SNAPSHOT_PREFIX)) {
+			if (id < lastId) {
+				Files.delete(file(SNAPSHOT_PREFIX, id));
+			}
+		}
+		for (int id : ids(LOG_PREFIX)) {
+			if (id <= lastId) {
+				Files.delete(file(LOG_PREFIX, id));
+			}
+		}
+	}
+
+	private Path file(String prefix, int id) {
+		return directory.resolve(prefix + id + SUFFIX);
+	}
+
+	/**
+	 * @return the ids in the names of the files with the given prefix, in ascending order
+	 */
+	private List<Integer> ids(String prefix) throws IOException {
+		List<Integer> ids = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				ids.add(Integer.valueOf(name.substring(prefix.length(), name.length() - SUFFIX.length())));
+			}
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		snapshotWriter.shutdown();
+		try {
+			snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (log != null) {
+			log.close();
+		}
+	}
+}
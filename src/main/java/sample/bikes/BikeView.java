@@ -14,7 +14,7 @@ public class BikeView {
 	}
 
 	public static BikeView of(Bike bike) {
-		return new BikeView(bike.name);
+		return new BikeView(bike.getName());
 	}
 
 	public String getName() {
@@ -0,0 +1,228 @@
+package sample.bikes;
+
+import sample.Json;
+
+/**
+ * Decodes the {@code {"name": ...}} bodies of new bikes straight from their UTF-8 bytes. Creating a bike only needs
+ * the name, so a full Jackson parser with its token stream is more than the common body calls for.
+ * <p>
+ * The fast path takes an object that is empty or has a single {@code name} member with a string or {@code null}
+ * value, surrounded by JSON whitespace. The name is decoded into a scratch buffer kept per thread, so apart from the
+ * result only the name itself is allocated. Anything else, from other members over malformed UTF-8 to syntax errors,
+ * is handed to Jackson, which decides what it means.
+ */
+final class BikeViewDecoder {
+
+	/** longer names are decoded into a buffer of their own instead of growing the scratch buffer for good */
+	static final int MAX_SCRATCH_LENGTH = 1024;
+
+	private static final byte[] NAME_KEY = { '"', 'n', 'a', 'm', 'e', '"' };
+
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	private static final ThreadLocal<char[]> scratch = ThreadLocal.withInitial(() -> new char[64]);
+
+	private BikeViewDecoder() {
+	}
+
+	static BikeView decode(byte[] body) {
+		BikeView view = tryDecode(body);
+		return view != null ? view : Json.parse(body, BikeView.class);
+	}
+
+	/**
+	 * @return the decoded view, or {@code null} if the body is not one the fast path takes
+	 */
+	static BikeView tryDecode(byte[] body) {
+		int position = skipWhitespace(body, 0);
+		if (position == body.length || body[position] != '{') {
+			return null;
+		}
+		position = skipWhitespace(body, position + 1);
+		if (position < body.length && body[position] == '}') {
+			return skipWhitespace(body, position + 1) == body.length ? new BikeView(null) : null;
+		}
+		if (!matches(body, position, NAME_KEY)) {
+			return null;
+		}
+		position = skipWhitespace(body, position + NAME_KEY.length);
+		if (position == body.length || body[position] != ':') {
+			return null;
+		}
+		position = skipWhitespace(body, position + 1);
+		String name;
+		if (matches(body, position, NULL)) {
+			name = null;
+			position += NULL.length;
+		} else if (position < body.length && body[position] == '"') {
+			int end = stringEnd(body, position + 1);
+			if (end < 0) {
+				return null;
+			}
+			name = decodeString(body, position + 1, end);
+			if (name == null) {
+				return null;
+			}
+			position = end + 1;
+		} else {
+			return null;
+		}
+		position = skipWhitespace(body, position);
+		if (position == body.length || body[position] != '}' || skipWhitespace(body, position + 1) != body.length) {
+			return null;
+		}
+		return new BikeView(name);
+	}
+
+	private static int skipWhitespace(byte[] body, int position) {
+		while (position < body.length) {
+			byte b = body[position];
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				break;
+			}
+			position++;
+		}
+		return position;
+	}
+
+	private static boolean matches(byte[] body, int position, byte[] expected) {
+		if (body.length - position < expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (body[position + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the closing quote of the string starting at {@code from}, or -1 if there is none
+	 */
+	private static int stringEnd(byte[] body, int from) {
+		for (int i = from; i < body.length; i++) {
+			if (body[i] == '\\') {
+				i++;
+			} else if (body[i] == '"') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the string between {@code from} and {@code to}, which never needs more chars than bytes.
+	 *
+	 * @return the string, or {@code null} if it has control characters, unknown escapes or malformed UTF-8
+	 */
+	private static String decodeString(byte[] body, int from, int to) {
+		int maxLength = to - from;
+		char[] chars = scratch.get();
+		if (chars.length < maxLength) {
+			chars = new char[maxLength];
+			if (maxLength <= MAX_SCRATCH_LENGTH) {
+				scratch.set(chars);
+			}
+		}
+		int length = 0;
+		int i = from;
+		while (i < to) {
+			// plain ASCII, the bytes of other characters are negative
+			while (i < to && body[i] >= 0x20 && body[i] != '\\') {
+				chars[length++] = (char) body[i++];
+			}
+			if (i == to) {
+				break;
+			}
+			int b = body[i++] & 0xff;
+			if (b < 0x20) {
+				return null;
+			} else if (b == '\\') {
+				int escaped = unescape(body, i, to);
+				if (escaped < 0) {
+					return null;
+				}
+				chars[length++] = (char) escaped;
+				i += body[i] == 'u' ? 5 : 1;
+			} else if (b < 0x80) {
+				chars[length++] = (char) b;
+			} else {
+				int codePoint;
+				int continuations;
+				int min;
+				if ((b & 0xe0) == 0xc0) {
+					codePoint = b & 0x1f;
+					continuations = 1;
+					min = 0x80;
+				} else if ((b & 0xf0) == 0xe0) {
+					codePoint = b & 0x0f;
+					continuations = 2;
+					min = 0x800;
+				} else if ((b & 0xf8) == 0xf0) {
+					codePoint = b & 0x07;
+					continuations = 3;
+					min = 0x10000;
+				} else {
+					return null;
+				}
+				if (to - i < continuations) {
+					return null;
+				}
+				for (int c = 0; c < continuations; c++) {
+					int next = body[i++] & 0xff;
+					if ((next & 0xc0) != 0x80) {
+						return null;
+					}
+					codePoint = codePoint << 6 | (next & 0x3f);
+				}
+				if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+					|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+					return null;
+				}
+				length += Character.toChars(codePoint, chars, length);
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * @param position the index of the char after the backslash
+	 * @return the escaped char, or -1 for an escape JSON does not know
+	 */
+	private static int unescape(byte[] body, int position, int to) {
+		switch (body[position]) {
+			case '"':
+				return '"';
+			case '\\':
+				return '\\';
+			case '/':
+				return '/';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				if (to - position < 5) {
+					return -1;
+				}
+				int value = 0;
+				for (int i = position + 1; i <= position + 4; i++) {
+					int digit = Character.digit(body[i], 16);
+					if (digit < 0) {
+						return -1;
+					}
+					value = value << 4 | digit;
+				}
+				return value;
+			default:
+				return -1;
+		}
+	}
+}
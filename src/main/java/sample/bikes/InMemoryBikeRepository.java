@@ -0,0 +1,30 @@
+package sample.bikes;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the bikes nowhere but in the memory of the {@link BikeService}, they are gone after a restart.
+ */
+public class InMemoryBikeRepository implements BikeRepository {
+
+	@Override
+	public boolean isPersistent() {
+		return false;
+	}
+
+	@Override
+	public void load(Consumer<Bike> consumer) {
+	}
+
+	/**
+	 * Does nothing, the service does not even call it as long as {@link #isPersistent()} is false.
+	 */
+	@Override
+	public void append(List<Bike> bikes) {
+	}
+
+	@Override
+	public void close() {
+	}
+}
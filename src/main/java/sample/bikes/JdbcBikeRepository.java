@@ -0,0 +1,107 @@
+package sample.bikes;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the bikes in an embedded H2 database, e.g. {@code jdbc:h2:/var/lib/bikes/bikes} for a database file.
+ * <p>
+ * Connections come from a pool and keep their H2 session, which caches the parsed statements, so preparing the
+ * same SQL again is cheap. The bikes of one append are inserted with a single JDBC batch in one transaction.
+ */
+public class JdbcBikeRepository implements BikeRepository {
+
+	private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS bike (id INT PRIMARY KEY, name VARCHAR)";
+
+	private static final String SELECT_ALL = "SELECT id, name FROM bike ORDER BY id";
+
+	private static final String INSERT = "INSERT INTO bike (id, name) VALUES (?, ?)";
+
+	private static final int BATCH_SIZE = 1000;
+
+	private static final int FETCH_SIZE = 1000;
+
+	private final JdbcConnectionPool pool;
+
+	JdbcBikeRepository(JdbcConnectionPool pool) throws SQLException {
+		this.pool = pool;
+		try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute(CREATE_TABLE);
+		}
+	}
+
+	public static JdbcBikeRepository open(String url, int maxConnections) {
+		JdbcConnectionPool pool = JdbcConnectionPool.create(url, "", "");
+		pool.setMaxConnections(maxConnections);
+		try {
+			return new JdbcBikeRepository(pool);
+		} catch (SQLException e) {
+			pool.dispose();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void load(Consumer<Bike> consumer) {
+		try (Connection connection = pool.getConnection();
+			PreparedStatement select = connection.prepareStatement(SELECT_ALL)) {
+			select.setFetchSize(FETCH_SIZE);
+			try (ResultSet bikes = select.executeQuery()) {
+				while (bikes.next()) {
+					Bike bike = new Bike(bikes.getString(2));
+					bike.id = bikes.getInt(1);
+					consumer.accept(bike);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Stores all bikes or none of them.
+	 */
+	@Override
+	public void append(List<Bike> bikes) {
+		try (Connection connection = pool.getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+				for (int i = 0; i < bikes.size(); i++) {
+					Bike bike = bikes.get(i);
+					insert.setInt(1, bike.id);
+					if (bike.name == null) {
+						insert.setNull(2, Types.VARCHAR);
+					} else {
+						insert.setString(2, bike.name);
+					}
+					insert.addBatch();
+					if ((i + 1) % BATCH_SIZE == 0) {
+						insert.executeBatch();
+					}
+				}
+				insert.executeBatch();
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new PartialAppendException(0, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		pool.dispose();
+	}
+}
@@ -0,0 +1,244 @@
+package sample.bikes;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sorted map from name to the ids of the bikes with that name, so exact and prefix lookups cost
+ * O(log names + matches) instead of a scan over all bikes.
+ * <p>
+ * Adding and lookups are lock-free, writers of different names never touch the same entry and writers of the same
+ * name retry on a compare-and-set of its ids. Concurrent writers may add ids out of order, they are kept sorted per
+ * name. The snapshot a lookup belongs to is passed as {@code maxId}, which hides bikes indexed after it was taken.
+ */
+final class NameIndex {
+
+	private final ConcurrentSkipListMap<String, Ids> ids = new ConcurrentSkipListMap<>();
+
+	/** the bikes without a name, which sort after all others */
+	private final AtomicReference<Ids> unnamed = new AtomicReference<>();
+
+	void add(Bike bike) {
+		int id = bike.id;
+		if (bike.name != null) {
+			// the function may run more than once when writers of the same name race, Ids.insert has no side effects
+			ids.compute(bike.name, (name, previous) -> Ids.insert(previous, id));
+		} else {
+			unnamed.updateAndGet(previous -> Ids.insert(previous, id));
+		}
+	}
+
+	/**
+	 * @return the ids of the bikes called {@code name}, in ascending order
+	 */
+	int[] exact(String name, int maxId) {
+		Ids matches = ids.get(name);
+		return matches == null ? new int[0] : matches.upTo(maxId);
+	}
+
+	/**
+	 * @return the ids of the bikes with a name starting with {@code prefix}, in ascending order
+	 */
+	int[] prefix(String prefix, int maxId) {
+		int[] result = new int[0];
+		int size = 0;
+		for (Map.Entry<String, Ids> entry : ids.tailMap(prefix).entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			int[] matches = entry.getValue().upTo(maxId);
+			if (size + matches.length > result.length) {
+				result = Arrays.copyOf(result, Math.max(size + matches.length, result.length * 2));
+			}
+			System.arraycopy(matches, 0, result, size, matches.length);
+			size += matches.length;
+		}
+		result = Arrays.copyOf(result, size);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Walks the names in order and stops after {@code limit} ids, so it costs O(log names + limit) no matter how
+	 * many bikes there are.
+	 *
+	 * @return the ids of the first {@code limit} bikes ordered by name, bikes without a name last and bikes with the
+	 * same name in id order
+	 */
+	int[] sortedByName(boolean descending, int maxId, int limit) {
+		int[] result = new int[Math.min(limit, 16)];
+		int size = 0;
+		Ids unnamed = this.unnamed.get();
+		Iterator<Ids> groups = (descending ? ids.descendingMap() : ids).values().iterator();
+		while (size < limit && (groups.hasNext() || unnamed != null)) {
+			Ids group;
+			if (groups.hasNext()) {
+				group = groups.next();
+			} else {
+				group = unnamed;
+				unnamed = null;
+			}
+			// ids are sorted, so the first one past maxId ends the group
+			for (int i = 0; i < group.size() && group.get(i) <= maxId && size < limit; i++) {
+				if (size == result.length) {
+					result = Arrays.copyOf(result, (int) Math.min(limit, size * 2L));
+				}
+				result[size++] = group.get(i);
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Immutable sorted ids in a 32-way trie of int leaves plus a tail, laid out like {@link BikeSnapshot}. Appending
+	 * copies the tail or the path to the new leaf and shares everything else, so it is amortized O(1) no matter how
+	 * many bikes share the name. An id arriving out of order shifts only the ids after it, which are the few that
+	 * concurrent writers added in the meantime. No array is written once it is published, so racing inserts cannot
+	 * corrupt each other.
+	 */
+	private static final class Ids {
+
+		private static final int BITS = 5;
+
+		private static final int WIDTH = 1 << BITS;
+
+		private static final int MASK = WIDTH - 1;
+
+		static final Ids EMPTY = new Ids(0, BITS, new Object[WIDTH], new int[0]);
+
+		private final int size;
+
+		private final int shift;
+
+		private final Object[] root;
+
+		private final int[] tail;
+
+		private Ids(int size, int shift, Object[] root, int[] tail) {
+			this.size = size;
+			this.shift = shift;
+			this.root = root;
+			this.tail = tail;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int get(int index) {
+			return leafFor(index)[index & MASK];
+		}
+
+		static Ids insert(Ids previous, int id) {
+			Ids ids = previous == null ? EMPTY : previous;
+			int position = ids.size;
+			while (position > 0 && ids.get(position - 1) > id) {
+				position--;
+			}
+			if (position == ids.size) {
+				return ids.append(id);
+			}
+			Ids result = ids.append(ids.get(ids.size - 1));
+			for (int index = ids.size - 1; index > position; index--) {
+				result = result.set(index, ids.get(index - 1));
+			}
+			return result.set(position, id);
+		}
+
+		int[] upTo(int maxId) {
+			int end = size;
+			while (end > 0 && get(end - 1) > maxId) {
+				end--;
+			}
+			int[] ids = new int[end];
+			for (int from = 0; from < end; from += WIDTH) {
+				System.arraycopy(leafFor(from), 0, ids, from, Math.min(WIDTH, end - from));
+			}
+			return ids;
+		}
+
+		private Ids append(int id) {
+			if (size - tailOffset() < WIDTH) {
+				int[] newTail = Arrays.copyOf(tail, tail.length + 1);
+				newTail[tail.length] = id;
+				return new Ids(size + 1, shift, root, newTail);
+			}
+			Object[] newRoot;
+			int newShift = shift;
+			if ((size >>> BITS) > (1 << shift)) {
+				newRoot = new Object[WIDTH];
+				newRoot[0] = root;
+				newRoot[1] = newPath(shift, tail);
+				newShift += BITS;
+			} else {
+				newRoot = pushTail(shift, root, tail);
+			}
+			return new Ids(size + 1, newShift, newRoot, new int[] { id });
+		}
+
+		/**
+		 * Copies the path to the leaf of {@code index} and shares all other nodes.
+		 */
+		private Ids set(int index, int id) {
+			if (index >= tailOffset()) {
+				int[] newTail = tail.clone();
+				newTail[index & MASK] = id;
+				return new Ids(size, shift, root, newTail);
+			}
+			return new Ids(size, shift, (Object[]) set(shift, root, index, id), tail);
+		}
+
+		private static Object set(int level, Object node, int index, int id) {
+			if (level == 0) {
+				int[] leaf = ((int[]) node).clone();
+				leaf[index & MASK] = id;
+				return leaf;
+			}
+			Object[] result = ((Object[]) node).clone();
+			int childIndex = (index >>> level) & MASK;
+			result[childIndex] = set(level - BITS, result[childIndex], index, id);
+			return result;
+		}
+
+		private int tailOffset() {
+			return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+		}
+
+		private int[] leafFor(int index) {
+			if (index >= tailOffset()) {
+				return tail;
+			}
+			Object[] node = root;
+			for (int level = shift; level > BITS; level -= BITS) {
+				node = (Object[]) node[(index >>> level) & MASK];
+			}
+			return (int[]) node[(index >>> BITS) & MASK];
+		}
+
+		private Object[] pushTail(int level, Object[] parent, int[] tailNode) {
+			int childIndex = ((size - 1) >>> level) & MASK;
+			Object[] result = parent.clone();
+			Object child;
+			if (level == BITS) {
+				child = tailNode;
+			} else {
+				Object[] existing = (Object[]) parent[childIndex];
+				child = existing != null ? pushTail(level - BITS, existing, tailNode) : newPath(level - BITS, tailNode);
+			}
+			result[childIndex] = child;
+			return result;
+		}
+
+		private static Object newPath(int level, int[] leaf) {
+			if (level == 0) {
+				return leaf;
+			}
+			Object[] result = new Object[WIDTH];
+			result[0] = newPath(level - BITS, leaf);
+			return result;
+		}
+	}
+}
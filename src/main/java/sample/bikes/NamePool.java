@@ -0,0 +1,95 @@
+package sample.bikes;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool that lets bikes with the same name share one {@link String}.
+ * <p>
+ * Every name hashes to a single slot holding the last name seen there. A different name simply replaces it, so the
+ * pool never holds more than {@code capacity} strings and needs no locks. Frequent names stay in their slot and are
+ * shared, rare ones get evicted again.
+ */
+public class NamePool {
+
+	/** whether the JVM stores strings of Latin-1 chars with one byte per char */
+	private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+
+	private final AtomicReferenceArray<String> slots;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * @param capacity rounded up to a power of two
+	 */
+	public NamePool(int capacity) {
+		slots = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+	}
+
+	/**
+	 * @return a string equal to {@code name}, the pooled one if there is one
+	 */
+	public String intern(String name) {
+		if (name == null) {
+			return null;
+		}
+		int hash = name.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & (slots.length() - 1);
+		String pooled = slots.get(slot);
+		if (name.equals(pooled)) {
+			hits.increment();
+			bytesSaved.add(sizeOf(name));
+			return pooled;
+		}
+		misses.increment();
+		slots.set(slot, name);
+		return name;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return an estimate of the heap no longer taken by duplicate names, a string and its array per hit, assuming
+	 * compressed oops and the string layout of the running Java version
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	private static long sizeOf(String name) {
+		// 24 bytes for the string, a 16 byte array header plus the chars, padded to 8 bytes
+		return 24 + ((16 + bytesPerChar(name) * name.length() + 7) & ~7);
+	}
+
+	/**
+	 * Since Java 9 strings of Latin-1 chars keep one byte per char, unless compact strings are switched off, which
+	 * this estimate does not know about.
+	 */
+	private static long bytesPerChar(String name) {
+		if (!COMPACT_STRINGS) {
+			return 2;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) > 0xff) {
+				return 2;
+			}
+		}
+		return 1;
+	}
+}
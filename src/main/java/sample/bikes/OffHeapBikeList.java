@@ -0,0 +1,170 @@
+package sample.bikes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Append-only list of bikes kept in direct buffers outside of the heap, so millions of bikes cost the garbage
+ * collector a handful of buffer objects instead of three objects per bike.
+ * <p>
+ * Records are {@code [int id][int nameLength][name as UTF-8]} with a {@code nameLength} of -1 for a missing name,
+ * packed into arenas of up to {@link #ARENA_SIZE} bytes. The address of every record, {@code arena << 32 | offset},
+ * is kept in direct buffers of {@link #ADDRESSES_PER_BUFFER} longs. Reads hand out {@link Bike} views that decode the
+ * name from the arena when asked for it.
+ * <p>
+ * A service has a list per stripe, most of which stay small, so the first arena and address buffer start small.
+ * Every further arena is twice the size of the one before, and the first address buffer is copied into one twice
+ * its size when it is full, until both reach their full size.
+ * <p>
+ * All lists appended from the same empty list share the buffers. Only the longest of them may be appended to, one
+ * thread at a time. Every list keeps its own copy of the buffer arrays, which never changes after it is published,
+ * and only reads the records below its size, so readers are lock-free.
+ */
+final class OffHeapBikeList extends AbstractList<Bike> implements BikeList {
+
+	static final int ARENA_SIZE = 1 << 20;
+
+	static final int ADDRESSES_PER_BUFFER = 1 << 16;
+
+	static final int MIN_ARENA_SIZE = 1 << 12;
+
+	static final int MIN_ADDRESSES_PER_BUFFER = 1 << 8;
+
+	private static final int RECORD_PREFIX_SIZE = 8;
+
+	private final Writer writer;
+
+	private final ByteBuffer[] arenas;
+
+	private final ByteBuffer[] addresses;
+
+	private final int size;
+
+	private OffHeapBikeList(Writer writer, ByteBuffer[] arenas, ByteBuffer[] addresses, int size) {
+		this.writer = writer;
+		this.arenas = arenas;
+		this.addresses = addresses;
+		this.size = size;
+	}
+
+	static OffHeapBikeList empty() {
+		return new OffHeapBikeList(new Writer(), new ByteBuffer[0], new ByteBuffer[0], 0);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Bike get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		long address = addresses[index / ADDRESSES_PER_BUFFER].getLong((index % ADDRESSES_PER_BUFFER) * 8);
+		return new View(arenas[(int) (address >>> 32)], (int) address);
+	}
+
+	@Override
+	public OffHeapBikeList append(Bike bike) {
+		if (size != writer.size) {
+			throw new IllegalStateException("Only the longest list can be appended to");
+		}
+		String name = bike.getName();
+		byte[] nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_PREFIX_SIZE + (nameBytes == null ? 0 : nameBytes.length);
+
+		ByteBuffer[] newArenas = arenas;
+		if (arenas.length == 0 || writer.position + length > arenas[arenas.length - 1].capacity()) {
+			newArenas = Arrays.copyOf(arenas, arenas.length + 1);
+			int arenaSize = arenas.length == 0 ? MIN_ARENA_SIZE : Math.min(arenas[arenas.length - 1].capacity() * 2, ARENA_SIZE);
+			newArenas[arenas.length] = ByteBuffer.allocateDirect(Math.max(arenaSize, length));
+			writer.position = 0;
+		}
+		ByteBuffer arena = newArenas[newArenas.length - 1].duplicate();
+		arena.position(writer.position);
+		arena.putInt(bike.getId());
+		arena.putInt(nameBytes == null ? -1 : nameBytes.length);
+		if (nameBytes != null) {
+			arena.put(nameBytes);
+		}
+
+		ByteBuffer[] newAddresses = addresses;
+		if (size % ADDRESSES_PER_BUFFER == 0) {
+			newAddresses = Arrays.copyOf(addresses, addresses.length + 1);
+			newAddresses[addresses.length] = ByteBuffer.allocateDirect((size == 0 ? MIN_ADDRESSES_PER_BUFFER : ADDRESSES_PER_BUFFER) * 8);
+		} else if (size * 8 == addresses[0].capacity()) {
+			// only the first buffer is ever short, shorter lists keep reading their records from the old one
+			newAddresses = addresses.clone();
+			ByteBuffer full = addresses[0].duplicate();
+			full.clear();
+			newAddresses[0] = ByteBuffer.allocateDirect(Math.min(size * 2, ADDRESSES_PER_BUFFER) * 8).put(full);
+		}
+		newAddresses[size / ADDRESSES_PER_BUFFER].putLong((size % ADDRESSES_PER_BUFFER) * 8,
+			(long) (newArenas.length - 1) << 32 | writer.position);
+
+		writer.position += length;
+		writer.size = size + 1;
+		return new OffHeapBikeList(writer, newArenas, newAddresses, size + 1);
+	}
+
+	/**
+	 * @return the bytes of the direct buffers this list reads from, including the space not used yet
+	 */
+	long allocatedBytes() {
+		long bytes = 0;
+		for (ByteBuffer arena : arenas) {
+			bytes += arena.capacity();
+		}
+		for (ByteBuffer buffer : addresses) {
+			bytes += buffer.capacity();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Where the next record goes, shared by all lists on the same buffers.
+	 */
+	private static final class Writer {
+
+		int position;
+
+		int size;
+	}
+
+	/**
+	 * Flyweight bike reading its record from the arena. The fields inherited from {@link Bike} stay unset, so it has
+	 * to be read through the getters.
+	 */
+	private static final class View extends Bike {
+
+		private final ByteBuffer arena;
+
+		private final int offset;
+
+		View(ByteBuffer arena, int offset) {
+			this.arena = arena;
+			this.offset = offset;
+		}
+
+		@Override
+		public Integer getId() {
+			return arena.getInt(offset);
+		}
+
+		@Override
+		public String getName() {
+			int length = arena.getInt(offset + 4);
+			if (length < 0) {
+				return null;
+			}
+			byte[] name = new byte[length];
+			ByteBuffer record = arena.duplicate();
+			record.position(offset + RECORD_PREFIX_SIZE);
+			record.get(name);
+			return new String(name, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package sample.bikes;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of the bikes with the ids 1 to size, merged from the snapshots of the stripes of a
+ * {@link BikeService}. The bike with id {@code i} is at index {@code (i - 1) / n} of stripe {@code (i - 1) % n}, so
+ * merging is a matter of arithmetic and nothing is copied.
+ */
+final class StripedSnapshot extends AbstractList<Bike> implements RandomAccess {
+
+	static final StripedSnapshot EMPTY = new StripedSnapshot(new BikeList[] { BikeSnapshot.EMPTY }, 0);
+
+	private final BikeList[] stripes;
+
+	private final int size;
+
+	/**
+	 * @param size has to be covered by the stripes, i.e. every id up to it has to be stored
+	 */
+	StripedSnapshot(BikeList[] stripes, int size) {
+		this.stripes = stripes;
+		this.size = size;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Every write appends bikes, so the size identifies the snapshot.
+	 */
+	long version() {
+		return size;
+	}
+
+	@Override
+	public Bike get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return stripes[index % stripes.length].get(index / stripes.length);
+	}
+
+	/**
+	 * Walks the stripes side by side, which keeps the chunked iteration of {@link BikeSnapshot}.
+	 */
+	@Override
+	public Iterator<Bike> iterator() {
+		return new Iterator<Bike>() {
+
+			private final Iterator<?>[] iterators = new Iterator<?>[stripes.length];
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Bike next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				int stripe = index++ % stripes.length;
+				if (iterators[stripe] == null) {
+					iterators[stripe] = stripes[stripe].iterator();
+				}
+				return (Bike) iterators[stripe].next();
+			}
+		};
+	}
+
+	/**
+	 * Bikes are never changed once they are stored, so the snapshot of an older version is a prefix of this one and
+	 * no old versions have to be kept around. Whatever a reader still holds is kept alive by the shared trie nodes
+	 * and reclaimed by the garbage collector once it lets go.
+	 *
+	 * @return the bikes as they were at {@code version}, which must not be newer than this snapshot
+	 */
+	StripedSnapshot asOf(long version) {
+		if (version < 0 || version > size) {
+			throw new IllegalArgumentException("Version " + version + " is not in 0.." + size);
+		}
+		return version == size ? this : new StripedSnapshot(stripes, (int) version);
+	}
+
+	/**
+	 * Ids are dense and the snapshot is ordered by id, so the bikes after {@code afterId} start at that index and
+	 * a page costs O(limit) no matter how many bikes are stored.
+	 *
+	 * @return up to {@code limit} bikes with an id greater than {@code afterId}, in id order
+	 */
+	List<Bike> page(int afterId, int limit) {
+		int from = Math.min(Math.max(afterId, 0), size);
+		int to = (int) Math.min((long) from + limit, size);
+		return from == 0 && to == size ? this : subList(from, to);
+	}
+}
@@ -8,20 +8,22 @@ public class MockSpark {
 	protected MockSpark() {
 	}
 
+	private static volatile MockService instance = ignite();
+
 	public static SparkClient getClient() {
-		return new SparkClient(SingletonHolder.INSTANCE);
+		return new SparkClient(getInstance());
 	}
 
-	/**
-	 * Initializes singleton.
-	 */
-	private static class SingletonHolder {
-
-		private static final MockService INSTANCE = ignite();
+	private static MockService getInstance() {
+		return instance;
 	}
 
-	private static MockService getInstance() {
-		return MockSpark.SingletonHolder.INSTANCE;
+	/**
+	 * Discards all routes, filters and exception handlers mapped so far, so that every test starts with an empty
+	 * route table.
+	 */
+	public static void reset() {
+		instance = ignite();
 	}
 
 	/**
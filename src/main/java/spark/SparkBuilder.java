@@ -4,15 +4,20 @@ public class SparkBuilder {
 
 	private static boolean useDefault = true;
 
+	private static StreamingResponseTransformer streamingTransformer;
+
 	public static void initDefault() {
 		useDefault = true;
 	}
 
 	public static void initMock() {
 		useDefault = false;
+		streamingTransformer = null;
+		MockSpark.reset();
 	}
 
 	public static void defaultResponseTransformer(ResponseTransformer responseTransformer) {
+		streamingTransformer = null;
 		if (useDefault) {
 			Spark.defaultResponseTransformer(responseTransformer);
 		} else {
@@ -20,6 +25,34 @@ public class SparkBuilder {
 		}
 	}
 
+	/**
+	 * Set a default response transformer that writes the result of every route mapped afterwards straight into the
+	 * response output stream. Spark's own transformers have to return a {@code String}, which is encoded to bytes
+	 * and copied to the output once more. Routes returning {@code null} are left alone.
+	 *
+	 * @param responseTransformer the transformer, replacing any other default transformer
+	 */
+	public static void defaultResponseTransformer(StreamingResponseTransformer responseTransformer) {
+		defaultResponseTransformer((ResponseTransformer) null);
+		streamingTransformer = responseTransformer;
+	}
+
+	private static Route streamed(Route route) {
+		StreamingResponseTransformer transformer = streamingTransformer;
+		if (transformer == null) {
+			return route;
+		}
+		return (request, response) -> {
+			Object model = route.handle(request, response);
+			if (model == null) {
+				return null;
+			}
+			transformer.render(model, response);
+			// the body is written already, Spark only has to flush it
+			return "";
+		};
+	}
+
 	/**
 	 * Add a path-prefix to the routes declared in the routeGroup
 	 * The path() method adds a path-fragment to a path-stack, adds
@@ -167,9 +200,24 @@ public class SparkBuilder {
 	 */
 	public static void get(final String path, final Route route) {
 		if (useDefault) {
-			Spark.get(path, route);
+			Spark.get(path, streamed(route));
+		} else {
+			MockSpark.get(path, streamed(route));
+		}
+	}
+
+	/**
+	 * Map the route for HTTP GET requests
+	 *
+	 * @param path       the path
+	 * @param acceptType the accept type
+	 * @param route      The route
+	 */
+	public static void get(String path, String acceptType, Route route) {
+		if (useDefault) {
+			Spark.get(path, acceptType, streamed(route));
 		} else {
-			MockSpark.get(path, route);
+			MockSpark.get(path, acceptType, streamed(route));
 		}
 	}
 
@@ -181,9 +229,9 @@ public class SparkBuilder {
 	 */
 	public static void post(String path, Route route) {
 		if (useDefault) {
-			Spark.post(path, route);
+			Spark.post(path, streamed(route));
 		} else {
-			MockSpark.post(path, route);
+			MockSpark.post(path, streamed(route));
 		}
 	}
 
@@ -195,9 +243,9 @@ public class SparkBuilder {
 	 */
 	public static void put(String path, Route route) {
 		if (useDefault) {
-			Spark.put(path, route);
+			Spark.put(path, streamed(route));
 		} else {
-			MockSpark.put(path, route);
+			MockSpark.put(path, streamed(route));
 		}
 	}
 
@@ -209,9 +257,9 @@ public class SparkBuilder {
 	 */
 	public static void patch(String path, Route route) {
 		if (useDefault) {
-			Spark.patch(path, route);
+			Spark.patch(path, streamed(route));
 		} else {
-			MockSpark.patch(path, route);
+			MockSpark.patch(path, streamed(route));
 		}
 	}
 
@@ -223,9 +271,9 @@ public class SparkBuilder {
 	 */
 	public static void delete(String path, Route route) {
 		if (useDefault) {
-			Spark.delete(path, route);
+			Spark.delete(path, streamed(route));
 		} else {
-			MockSpark.delete(path, route);
+			MockSpark.delete(path, streamed(route));
 		}
 	}
 
@@ -237,9 +285,9 @@ public class SparkBuilder {
 	 */
 	public static void head(String path, Route route) {
 		if (useDefault) {
-			Spark.head(path, route);
+			Spark.head(path, streamed(route));
 		} else {
-			MockSpark.head(path, route);
+			MockSpark.head(path, streamed(route));
 		}
 	}
 	//////////////////////////////////////////////////
@@ -383,4 +431,41 @@ public class SparkBuilder {
 
 		}
 	}
+
+	//////////////////////////////////////////////////
+	// HALT methods
+	//////////////////////////////////////////////////
+
+	/**
+	 * Immediately stops a request within a filter or route with specified status code
+	 * NOTE: When using this don't catch exceptions of type HaltException, or if catched, re-throw otherwise
+	 * halt will not work
+	 *
+	 * @param status the status code
+	 * @return HaltException object with status code set
+	 */
+	public static HaltException halt(int status) {
+		if (useDefault) {
+			return Spark.halt(status);
+		} else {
+			return MockSpark.halt(status);
+		}
+	}
+
+	/**
+	 * Immediately stops a request within a filter or route with specified status code and body content
+	 * NOTE: When using this don't catch exceptions of type HaltException, or if catched, re-throw otherwise
+	 * halt will not work
+	 *
+	 * @param status The status code
+	 * @param body   The body content
+	 * @return HaltException object with status and body set
+	 */
+	public static HaltException halt(int status, String body) {
+		if (useDefault) {
+			return Spark.halt(status, body);
+		} else {
+			return MockSpark.halt(status, body);
+		}
+	}
 }
@@ -6,6 +6,9 @@ import spark.http.Response;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
 
 public class SparkClient {
 
@@ -19,6 +22,29 @@ public class SparkClient {
 		return doHttpCall(new MockRequest("GET", path).withHeader("Accept", "*/*"));
 	}
 
+	public Response get(String path, Map<String, String> headers) {
+		MockRequest request = new MockRequest("GET", path);
+		headers.forEach(request::withHeader);
+		if (request.getHeader("Accept") == null) {
+			request.withHeader("Accept", "*/*");
+		}
+		return doHttpCall(request);
+	}
+
+	/**
+	 * Asks for the body in the media type {@code acceptType} only and decodes it with the codec for that type.
+	 *
+	 * @throws IllegalStateException if the request fails or the response comes in another media type
+	 */
+	public <T> T get(String path, String acceptType, Function<byte[], T> decoder) {
+		Response response = get(path, Collections.singletonMap("Accept", acceptType));
+		if (response.status() != 200 || !acceptType.equals(response.header("Content-Type"))) {
+			throw new IllegalStateException("GET " + path + " returned " + response.status() + " with "
+				+ response.header("Content-Type") + " instead of " + acceptType);
+		}
+		return decoder.apply(response.bodyAsBytes());
+	}
+
 	private Response doHttpCall(MockRequest request) {
 		MockResponse response = new MockResponse();
 		try {
@@ -32,4 +58,10 @@ public class SparkClient {
 	public Response post(String path, String body) {
 		return doHttpCall(new MockRequest("POST", path).body(body));
 	}
+
+	public Response post(String path, String body, Map<String, String> headers) {
+		MockRequest request = new MockRequest("POST", path).body(body);
+		headers.forEach(request::withHeader);
+		return doHttpCall(request);
+	}
 }
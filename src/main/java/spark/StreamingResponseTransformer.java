@@ -0,0 +1,18 @@
+package spark;
+
+/**
+ * Response transformer that writes the route result to the response body itself instead of returning it as a
+ * {@code String}, see {@link SparkBuilder#defaultResponseTransformer(StreamingResponseTransformer)}.
+ */
+@FunctionalInterface
+public interface StreamingResponseTransformer {
+
+	/**
+	 * Writes the model to {@code response.raw().getOutputStream()}. This happens before the after filters run, so
+	 * headers such as the content type have to be set here.
+	 *
+	 * @param model    the non-null result of the route
+	 * @param response the response of the request
+	 */
+	void render(Object model, Response response) throws Exception;
+}
@@ -19,6 +19,8 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,6 +31,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class MockRequest implements HttpServletRequest {
 
@@ -36,15 +39,47 @@ public class MockRequest implements HttpServletRequest {
 
 	private final String path;
 
-	private String body;
+	private final String queryString;
 
-	private Map<String, List<String>> headers = new HashMap<>();
+	private final Map<String, List<String>> parameters = new HashMap<>();
+
+	private byte[] body = new byte[0];
+
+	private Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
 	private String characterEncoding = "UTF-8";
 
 	public MockRequest(String method, String path) {
 		this.method = method;
-		this.path = path;
+		int queryStart = path.indexOf('?');
+		if (queryStart < 0) {
+			this.path = path;
+			this.queryString = null;
+		} else {
+			this.path = path.substring(0, queryStart);
+			this.queryString = path.substring(queryStart + 1);
+			parseParameters(queryString);
+		}
+	}
+
+	private void parseParameters(String query) {
+		for (String pair : query.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int separator = pair.indexOf('=');
+			String name = separator < 0 ? pair : pair.substring(0, separator);
+			String value = separator < 0 ? "" : pair.substring(separator + 1);
+			parameters.computeIfAbsent(decode(name), key -> new ArrayList<>()).add(decode(value));
+		}
+	}
+
+	private String decode(String value) {
+		try {
+			return URLDecoder.decode(value, characterEncoding);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	@Override
@@ -118,7 +153,7 @@ public class MockRequest implements HttpServletRequest {
 
 	@Override
 	public String getQueryString() {
-		throw new UnsupportedOperationException();
+		return queryString;
 	}
 
 	@Override
@@ -243,12 +278,12 @@ public class MockRequest implements HttpServletRequest {
 
 	@Override
 	public int getContentLength() {
-		throw new UnsupportedOperationException();
+		return body.length;
 	}
 
 	@Override
 	public long getContentLengthLong() {
-		throw new UnsupportedOperationException();
+		return body.length;
 	}
 
 	@Override
@@ -261,7 +296,7 @@ public class MockRequest implements HttpServletRequest {
 
 		return new ServletInputStream() {
 
-			ByteArrayInputStream inputStream = new ByteArrayInputStream(body.getBytes());
+			ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
 
 			@Override
 			public boolean isFinished() {
@@ -287,22 +322,26 @@ public class MockRequest implements HttpServletRequest {
 
 	@Override
 	public String getParameter(String name) {
-		throw new UnsupportedOperationException();
+		List<String> values = parameters.getOrDefault(name, Collections.emptyList());
+		return values.isEmpty() ? null : values.get(0);
 	}
 
 	@Override
 	public Enumeration<String> getParameterNames() {
-		throw new UnsupportedOperationException();
+		return Collections.enumeration(parameters.keySet());
 	}
 
 	@Override
 	public String[] getParameterValues(String name) {
-		throw new UnsupportedOperationException();
+		List<String> values = parameters.get(name);
+		return values == null ? null : values.toArray(new String[values.size()]);
 	}
 
 	@Override
 	public Map<String, String[]> getParameterMap() {
-		throw new UnsupportedOperationException();
+		Map<String, String[]> parameterMap = new HashMap<>();
+		parameters.forEach((name, values) -> parameterMap.put(name, values.toArray(new String[values.size()])));
+		return parameterMap;
 	}
 
 	@Override
@@ -440,6 +479,13 @@ public class MockRequest implements HttpServletRequest {
 	}
 
 	public MockRequest body(String body) {
+		return body(body.getBytes(Charset.forName(characterEncoding)));
+	}
+
+	/**
+	 * Uses the bytes as they are, they are not copied and read on every call to {@link #getInputStream()}.
+	 */
+	public MockRequest body(byte[] body) {
 		this.body = body;
 		return this;
 	}
@@ -28,6 +28,11 @@ public class MockResponse implements HttpServletResponse, Response {
 		return status;
 	}
 
+	@Override
+	public String header(String name) {
+		return getHeader(name);
+	}
+
 	@Override
 	public String body() {
 		try {
@@ -37,6 +42,11 @@ public class MockResponse implements HttpServletResponse, Response {
 		}
 	}
 
+	@Override
+	public byte[] bodyAsBytes() {
+		return bodyOutput.toByteArray();
+	}
+
 	@Override
 	public void addCookie(Cookie cookie) {
 
@@ -150,7 +160,7 @@ this.status = sc;
 
 	@Override
 	public String getContentType() {
-		return null;
+		return headers.get("Content-Type");
 	}
 
 	@Override
@@ -171,6 +181,11 @@ this.status = sc;
 			public void write(int b) throws IOException {
 				bodyOutput.write(b);
 			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				bodyOutput.write(b, off, len);
+			}
 		};
 	}
 
@@ -196,7 +211,7 @@ this.status = sc;
 
 	@Override
 	public void setContentType(String type) {
-
+		headers.put("Content-Type", type);
 	}
 
 	@Override
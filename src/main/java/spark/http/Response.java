@@ -4,5 +4,9 @@ public interface Response {
 
 	int status();
 
+	String header(String name);
+
 	String body();
+
+	byte[] bodyAsBytes();
 }
@@ -0,0 +1,59 @@
+package sample.bikes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BikeCodecTest {
+
+	@Test
+	public void decodesWhatWasEncoded() {
+		List<Bike> bikes = new ArrayList<>();
+		String[] names = { "foo", null, "", "Fahrrad ü€🚲" };
+		int[] ids = { 1, 127, 128, Integer.MAX_VALUE };
+		for (int i = 0; i < ids.length; i++) {
+			Bike bike = new Bike(names[i]);
+			bike.id = ids[i];
+			bikes.add(bike);
+		}
+
+		List<Bike> decoded = BikeCodec.decode(BikeCodec.encode(bikes));
+		assertEquals(bikes.size(), decoded.size());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(Integer.valueOf(ids[i]), decoded.get(i).getId());
+			assertEquals(names[i], decoded.get(i).getName());
+		}
+		assertNull(decoded.get(1).getName());
+		assertEquals(Collections.emptyList(), BikeCodec.decode(BikeCodec.encode(Collections.emptyList())));
+	}
+
+	@Test
+	public void smallIdsAndNamesTakeAByteEach() {
+		Bike bike = new Bike("foo");
+		bike.id = 5;
+		assertEquals(Arrays.toString(new byte[] { 1, 5, 4, 'f', 'o', 'o' }),
+			Arrays.toString(BikeCodec.encode(Collections.singletonList(bike))));
+	}
+
+	@Test
+	public void rejectsBrokenInput() {
+		byte[][] broken = {
+			{}, { 1 }, { 1, 5 }, { 1, 5, 4, 'f', 'o' }, { 1, 5, 1, 0 }, { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0 },
+			{ (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f }
+		};
+		for (byte[] bytes : broken) {
+			try {
+				BikeCodec.decode(bytes);
+				fail("Decoded " + Arrays.toString(bytes));
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package sample.bikes;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BikeLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void bikesSurviveARestartWithEveryFsyncPolicy() throws IOException {
+		for (BikeLog.Fsync fsync : BikeLog.Fsync.values()) {
+			Path file = folder.newFile(fsync.name()).toPath();
+
+			try (BikeLog log = BikeLog.open(file, fsync, 1)) {
+				log.replay(bike -> {
+				});
+				log.append(bike(1, "foo"));
+				log.append(bike(2, null));
+				log.append(bike(3, "Fahrrad über 3000€"));
+			}
+
+			List<Bike> bikes = new ArrayList<>();
+			try (BikeLog log = BikeLog.open(file, fsync, 1)) {
+				log.replay(bikes::add);
+				log.append(bike(4, "bar"));
+			}
+			assertEquals(3, bikes.size());
+			assertEquals(Integer.valueOf(1), bikes.get(0).getId());
+			assertEquals("foo", bikes.get(0).getName());
+			assertNull(bikes.get(1).getName());
+			assertEquals("Fahrrad über 3000€", bikes.get(2).getName());
+			assertEquals(4, replay(file).size());
+		}
+	}
+
+	@Test
+	public void replayStopsAtATornRecordWhichIsOverwrittenByTheNextAppend() throws IOException {
+		Path file = folder.newFile().toPath();
+		try (BikeLog log = BikeLog.open(file, BikeLog.Fsync.PER_WRITE, 1)) {
+			log.replay(bike -> {
+			});
+			log.append(bike(1, "foo"));
+			log.append(bike(2, "bar"));
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			// flip a byte of the second name
+			long offset = 8 + 8 + 3 + 8 + 8;
+			raf.seek(offset);
+			int value = raf.read();
+			raf.seek(offset);
+			raf.write(value ^ 0xff);
+		}
+
+		try (BikeLog log = BikeLog.open(file, BikeLog.Fsync.PER_WRITE, 1)) {
+			List<Bike> bikes = new ArrayList<>();
+			log.replay(bikes::add);
+			assertEquals(1, bikes.size());
+			log.append(bike(2, "baz"));
+		}
+		List<Bike> bikes = replay(file);
+		assertEquals(2, bikes.size());
+		assertEquals("baz", bikes.get(1).getName());
+	}
+
+	private static List<Bike> replay(Path file) throws IOException {
+		List<Bike> bikes = new ArrayList<>();
+		try (BikeLog log = BikeLog.open(file, BikeLog.Fsync.OS, 1)) {
+			log.replay(bikes::add);
+		}
+		return bikes;
+	}
+
+	private static Bike bike(int id, String name) {
+		Bike bike = new Bike(name);
+		bike.id = id;
+		return bike;
+	}
+}
@@ -1,5 +1,8 @@
 package sample.bikes;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Test;
 import sample.SparkApplication;
@@ -8,7 +11,23 @@ import spark.SparkBuilder;
 import spark.SparkClient;
 import spark.http.Response;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class BikeRoutesTest {
 
@@ -46,6 +65,433 @@ public class BikeRoutesTest {
 		assertEquals(200, postResponse.status());
 		Response response = client.get("/hello");
 		assertEquals(200, response.status());
-		assertEquals("[{\"id\":null,\"name\":\"foo\"}]", response.body());
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", response.body());
+	}
+
+	@Test
+	public void cachedListIsReplacedByTheNextWrite() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		Response first = client.get("/hello");
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", first.body());
+		assertEquals("application/json", first.header("Content-Type"));
+		assertEquals(first.body(), client.get("/hello").body());
+
+		client.post("/hello", "{\"name\": \"bar\"}");
+		assertEquals("[{\"id\":1,\"name\":\"foo\"},{\"id\":2,\"name\":\"bar\"}]", client.get("/hello").body());
+	}
+
+	@Test
+	public void matchingETagReturns304UntilTheNextWrite() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		Response response = client.get("/hello");
+		String etag = response.header("ETag");
+		assertNotNull(etag);
+
+		Response notModified = client.get("/hello", Collections.singletonMap("If-None-Match", etag));
+		assertEquals(304, notModified.status());
+		assertEquals("", notModified.body());
+		assertEquals(etag, notModified.header("ETag"));
+		assertEquals(304, client.get("/hello", Collections.singletonMap("if-none-match", "\"other\", W/" + etag)).status());
+
+		client.post("/hello", "{\"name\": \"bar\"}");
+		Response modified = client.get("/hello", Collections.singletonMap("If-None-Match", etag));
+		assertEquals(200, modified.status());
+		assertNotEquals(etag, modified.header("ETag"));
+		assertEquals("[{\"id\":1,\"name\":\"foo\"},{\"id\":2,\"name\":\"bar\"}]", modified.body());
+	}
+
+	@Test
+	public void changesReturnsNewBikesRightAway() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{\"name\": \"bar\"}");
+		Response changes = client.get("/hello/changes?after=1");
+		assertEquals(200, changes.status());
+		assertEquals("[{\"id\":2,\"name\":\"bar\"}]", changes.body());
+		assertEquals("2", changes.header(BikeRoutes.NEXT_CURSOR_HEADER));
+	}
+
+	@Test
+	public void changesWaitsForTheNextBike() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Response> changes = executor.submit(() -> client.get("/hello/changes?after=0&waitMillis=10000"));
+		Thread.sleep(100);
+		client.post("/hello", "{\"name\": \"foo\"}");
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", changes.get(5, TimeUnit.SECONDS).body());
+		executor.shutdown();
+
+		Response timedOut = client.get("/hello/changes?after=1&waitMillis=10");
+		assertEquals("[]", timedOut.body());
+		assertEquals("1", timedOut.header(BikeRoutes.NEXT_CURSOR_HEADER));
+	}
+
+	@Test
+	public void canCreateBikesInABatch() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < 2500; i++) {
+			body.append(i == 0 ? "" : ",").append("{\"name\": \"bike-").append(i).append("\"}");
+		}
+		Response response = client.post("/hello/batch", body.append("]").toString());
+		assertEquals(200, response.status());
+		assertEquals("{\"created\":2500}", response.body());
+
+		JsonNode bikes = new ObjectMapper().readTree(client.get("/hello").body());
+		assertEquals(2500, bikes.size());
+		assertEquals(2500, bikes.get(2499).get("id").asInt());
+		assertEquals("bike-2499", bikes.get(2499).get("name").asText());
+		assertEquals("{\"created\":0}", client.post("/hello/batch", "[]").body());
+		assertEquals(400, client.post("/hello/batch", "{\"name\": \"foo\"}").status());
+	}
+
+	@Test
+	public void malformedBatchesTellHowManyBikesWereCreated() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < 1500; i++) {
+			body.append("{\"name\": \"bike-").append(i).append("\"},");
+		}
+		Response response = client.post("/hello/batch", body.append("{\"name\": ").toString());
+		assertEquals(400, response.status());
+		JsonNode result = new ObjectMapper().readTree(response.body());
+		// the first chunk was created before the parser got to the broken element
+		assertEquals(1000, result.get("created").asInt());
+		assertTrue(result.has("error"));
+		assertEquals(1000, new ObjectMapper().readTree(client.get("/hello").body()).size());
+	}
+
+	@Test
+	public void exportStreamsNewlineDelimitedJson() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{\"name\": \"bar\"}");
+		Response response = client.get("/hello/export");
+		assertEquals(200, response.status());
+		assertEquals("application/x-ndjson", response.header("Content-Type"));
+		assertEquals("{\"id\":1,\"name\":\"foo\"}\n{\"id\":2,\"name\":\"bar\"}\n", response.body());
+	}
+
+	@Test
+	public void canFindABikeById() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{\"name\": \"bar\"}");
+		Response response = client.get("/hello/2");
+		assertEquals(200, response.status());
+		assertEquals("{\"id\":2,\"name\":\"bar\"}", response.body());
+	}
+
+	@Test
+	public void routeResultsAreStreamedAsJson() {
+
+		SparkClient client = MockSpark.getClient();
+
+		Response created = client.post("/hello", "{\"name\": \"foo\"}");
+		assertEquals("{\"name\":\"foo\"}", created.body());
+		assertEquals("application/json", created.header("Content-Type"));
+		Response response = client.get("/hello/stats/top?k=1");
+		assertEquals("[{\"name\":\"foo\",\"count\":1}]", response.body());
+		assertEquals("application/json", response.header("Content-Type"));
+	}
+
+	@Test
+	public void bodiesAreParsedFromTheirUtf8Bytes() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"Fahrrad ü€\"}");
+		assertEquals("{\"id\":1,\"name\":\"Fahrrad ü€\"}", client.get("/hello/1").body());
+	}
+
+	@Test
+	public void acceptHeaderSelectsTheBinaryEncoding() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{}");
+		client.post("/hello", "{\"name\": \"bar\"}");
+		List<Bike> bikes = client.get("/hello", BikeCodec.MEDIA_TYPE, BikeCodec::decode);
+		assertEquals(3, bikes.size());
+		assertEquals(Integer.valueOf(3), bikes.get(2).getId());
+		assertEquals("bar", bikes.get(2).getName());
+		assertNull(bikes.get(1).getName());
+		assertEquals("bar", client.get("/hello?name=bar", BikeCodec.MEDIA_TYPE, BikeCodec::decode).get(0).getName());
+
+		Response binary = client.get("/hello", Collections.singletonMap("Accept", BikeCodec.MEDIA_TYPE));
+		Response json = client.get("/hello", Collections.singletonMap("Accept", "application/json"));
+		assertEquals("application/json", json.header("Content-Type"));
+		assertEquals("application/json", client.get("/hello").header("Content-Type"));
+		assertEquals("Accept", binary.header("Vary"));
+		assertNotEquals(json.header("ETag"), binary.header("ETag"));
+		assertEquals(304, client.get("/hello", ImmutableMap.of("Accept", BikeCodec.MEDIA_TYPE, "If-None-Match", binary.header("ETag"))).status());
+		assertEquals(200, client.get("/hello", ImmutableMap.of("Accept", BikeCodec.MEDIA_TYPE, "If-None-Match", json.header("ETag"))).status());
+	}
+
+	@Test
+	public void unknownIdReturns404() {
+
+		SparkClient client = MockSpark.getClient();
+
+		assertEquals(404, client.get("/hello/1").status());
+		assertEquals(404, client.get("/hello/foo").status());
+	}
+
+	@Test
+	public void canPageThroughBikesWithACursor() {
+
+		SparkClient client = MockSpark.getClient();
+
+		for (int i = 1; i <= 5; i++) {
+			client.post("/hello", "{\"name\": \"bike-" + i + "\"}");
+		}
+		Response firstPage = client.get("/hello?limit=2");
+		assertEquals(200, firstPage.status());
+		assertEquals("[{\"id\":1,\"name\":\"bike-1\"},{\"id\":2,\"name\":\"bike-2\"}]", firstPage.body());
+		assertEquals("2", firstPage.header(BikeRoutes.NEXT_CURSOR_HEADER));
+
+		Response secondPage = client.get("/hello?limit=2&after=2");
+		assertEquals("[{\"id\":3,\"name\":\"bike-3\"},{\"id\":4,\"name\":\"bike-4\"}]", secondPage.body());
+		assertEquals("4", secondPage.header(BikeRoutes.NEXT_CURSOR_HEADER));
+
+		Response lastPage = client.get("/hello?limit=2&after=4");
+		assertEquals("[{\"id\":5,\"name\":\"bike-5\"}]", lastPage.body());
+		assertNull(lastPage.header(BikeRoutes.NEXT_CURSOR_HEADER));
+	}
+
+	@Test
+	public void canSearchBikesByName() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"road\"}");
+		client.post("/hello", "{\"name\": \"roadster\"}");
+		client.post("/hello", "{\"name\": \"bmx\"}");
+		assertEquals("[{\"id\":1,\"name\":\"road\"}]", client.get("/hello?name=road").body());
+		assertEquals("[{\"id\":1,\"name\":\"road\"},{\"id\":2,\"name\":\"roadster\"}]",
+			client.get("/hello?namePrefix=ro").body());
+		assertEquals("[]", client.get("/hello?name=ro").body());
+		assertEquals(400, client.get("/hello?name=road&namePrefix=ro").status());
+	}
+
+	@Test
+	public void readsArePinnedToTheVersionAskedFor() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{\"name\": \"bar\"}");
+		Response firstPage = client.get("/hello?limit=1");
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", firstPage.body());
+		String version = firstPage.header(BikeRoutes.VERSION_HEADER);
+		assertEquals("2", version);
+
+		client.post("/hello", "{\"name\": \"baz\"}");
+		Response secondPage = client.get("/hello?limit=1&after=1&asOf=" + version);
+		assertEquals("[{\"id\":2,\"name\":\"bar\"}]", secondPage.body());
+		assertNull(secondPage.header(BikeRoutes.NEXT_CURSOR_HEADER));
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", client.get("/hello?asOf=1").body());
+		assertEquals("{\"id\":1,\"name\":\"foo\"}\n", client.get("/hello/export?asOf=1").body());
+		assertEquals("[]", client.get("/hello?name=baz&asOf=2").body());
+		assertEquals("3", client.get("/hello").header(BikeRoutes.VERSION_HEADER));
+		assertEquals(400, client.get("/hello?asOf=4").status());
+	}
+
+	@Test
+	public void sinceReturnsOnlyTheNewBikes() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		String version = client.get("/hello").header(BikeRoutes.VERSION_HEADER);
+		client.post("/hello", "{\"name\": \"bar\"}");
+
+		Response delta = client.get("/hello?since=" + version);
+		assertEquals(200, delta.status());
+		assertEquals("[{\"id\":2,\"name\":\"bar\"}]", delta.body());
+		assertEquals("2", delta.header(BikeRoutes.VERSION_HEADER));
+		assertEquals("[]", client.get("/hello?since=2").body());
+		// e.g. a version from before a restart
+		assertEquals(410, client.get("/hello?since=3").status());
+		assertEquals(400, client.get("/hello?since=-1").status());
+	}
+
+	@Test
+	public void namePoolStatsAreReported() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"foo\"}");
+		client.post("/hello", "{\"name\": \"foo\"}");
+		JsonNode stats = new ObjectMapper().readTree(client.get("/hello/stats/names").body());
+		assertEquals(1, stats.get("hits").asLong());
+		assertEquals(1, stats.get("misses").asLong());
+		assertEquals(0.5, stats.get("hitRate").asDouble(), 0);
+		assertEquals(48, stats.get("bytesSaved").asLong());
+	}
+
+	@Test
+	public void retriesWithTheSameIdempotencyKeyAreReplayed() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		Map<String, String> headers = Collections.singletonMap(BikeRoutes.IDEMPOTENCY_KEY_HEADER, "first");
+		Response created = client.post("/hello", "{\"name\": \"foo\"}", headers);
+		assertEquals(200, created.status());
+		assertEquals("{\"name\":\"foo\"}", created.body());
+		assertNull(created.header(BikeRoutes.REPLAYED_HEADER));
+
+		Response replayed = client.post("/hello", "{\"name\": \"foo\"}", headers);
+		assertEquals("{\"name\":\"foo\"}", replayed.body());
+		assertEquals("true", replayed.header(BikeRoutes.REPLAYED_HEADER));
+
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Response>> duplicates = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			duplicates.add(executor.submit(() -> {
+				start.await();
+				return client.post("/hello", "{\"name\": \"bar\"}", Collections.singletonMap(BikeRoutes.IDEMPOTENCY_KEY_HEADER, "second"));
+			}));
+		}
+		start.countDown();
+		for (Future<Response> duplicate : duplicates) {
+			assertEquals("{\"name\":\"bar\"}", duplicate.get().body());
+		}
+		executor.shutdown();
+		assertEquals("[{\"id\":1,\"name\":\"foo\"},{\"id\":2,\"name\":\"bar\"}]", client.get("/hello").body());
+	}
+
+	@Test
+	public void idempotencyKeysAreBoundToTheirBody() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		Map<String, String> headers = Collections.singletonMap(BikeRoutes.IDEMPOTENCY_KEY_HEADER, "key");
+		assertEquals(client.post("/hello", "{\"name\": ").status(), client.post("/hello", "{\"name\": ", headers).status());
+		assertEquals(200, client.post("/hello", "{\"name\": \"foo\"}", headers).status());
+		assertEquals(422, client.post("/hello", "{\"name\": \"bar\"}", headers).status());
+		assertEquals("[{\"id\":1,\"name\":\"foo\"}]", client.get("/hello").body());
+	}
+
+	@Test
+	public void aggregatesAreComputedOverAllBikes() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+
+		StringBuilder batch = new StringBuilder("[");
+		int count = 3 * BikeAggregates.SPLIT_THRESHOLD;
+		for (int i = 0; i < count; i++) {
+			batch.append(i == 0 ? "" : ",").append("{\"name\": \"").append(i % 3 == 0 ? "road" : i % 3 == 1 ? "bmx" : "tandem").append("\"}");
+		}
+		client.post("/hello/batch", batch.append("]").toString());
+		client.post("/hello", "{\"name\": \"road\"}");
+		client.post("/hello", "{\"name\": null}");
+
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode counts = mapper.readTree(client.get("/hello/stats/counts").body());
+		assertEquals(3, counts.size());
+		assertEquals(count / 3 + 1, counts.get("road").asLong());
+		assertEquals(count / 3, counts.get("bmx").asLong());
+		assertEquals("{\"3\":" + count / 3 + ",\"4\":" + (count / 3 + 1) + ",\"6\":" + count / 3 + "}",
+			client.get("/hello/stats/lengths").body());
+		assertEquals("[{\"name\":\"road\",\"count\":" + (count / 3 + 1) + "},{\"name\":\"bmx\",\"count\":" + count / 3 + "}]",
+			client.get("/hello/stats/top?k=2").body());
+		assertEquals(400, client.get("/hello/stats/top?k=0").status());
+	}
+
+	@Test
+	public void canSortBikes() {
+
+		SparkClient client = MockSpark.getClient();
+
+		client.post("/hello", "{\"name\": \"tandem\"}");
+		client.post("/hello", "{\"name\": null}");
+		client.post("/hello", "{\"name\": \"bmx\"}");
+		client.post("/hello", "{\"name\": \"road\"}");
+		client.post("/hello", "{\"name\": \"bmx\"}");
+		assertEquals("[{\"id\":3,\"name\":\"bmx\"},{\"id\":5,\"name\":\"bmx\"},{\"id\":4,\"name\":\"road\"}]",
+			client.get("/hello?sort=name&limit=3").body());
+		assertEquals("[{\"id\":1,\"name\":\"tandem\"},{\"id\":4,\"name\":\"road\"},{\"id\":3,\"name\":\"bmx\"},"
+			+ "{\"id\":5,\"name\":\"bmx\"},{\"id\":2,\"name\":null}]", client.get("/hello?sort=-name").body());
+		assertEquals("[{\"id\":5,\"name\":\"bmx\"},{\"id\":4,\"name\":\"road\"}]", client.get("/hello?sort=-id&limit=2").body());
+		assertEquals("[{\"id\":3,\"name\":\"bmx\"},{\"id\":5,\"name\":\"bmx\"},{\"id\":4,\"name\":\"road\"}]",
+			client.get("/hello?sort=nameLength&limit=3").body());
+		assertEquals("[{\"id\":1,\"name\":\"tandem\"},{\"id\":4,\"name\":\"road\"},{\"id\":3,\"name\":\"bmx\"},"
+			+ "{\"id\":5,\"name\":\"bmx\"},{\"id\":2,\"name\":null}]", client.get("/hello?sort=-nameLength").body());
+		assertEquals(400, client.get("/hello?sort=colour").status());
+		assertEquals(400, client.get("/hello?sort=name&after=1").status());
+	}
+
+	@Test
+	public void invalidPageParametersReturn400() {
+
+		SparkClient client = MockSpark.getClient();
+
+		assertEquals(400, client.get("/hello?limit=0").status());
+		assertEquals(400, client.get("/hello?limit=many").status());
+		assertEquals(400, client.get("/hello?after=-1").status());
+	}
+
+	@Test
+	public void concurrentCreatesAreNotLost() throws Exception {
+
+		SparkClient client = MockSpark.getClient();
+		int threads = 32;
+		int bikesPerThread = 50;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < bikesPerThread; i++) {
+					Response postResponse = client.post("/hello", "{\"name\": \"bike-" + thread + "-" + i + "\"}");
+					assertEquals(200, postResponse.status());
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		JsonNode bikes = new ObjectMapper().readTree(client.get("/hello").body());
+		assertEquals(threads * bikesPerThread, bikes.size());
+		Set<Integer> ids = new HashSet<>();
+		Set<String> names = new HashSet<>();
+		for (JsonNode bike : bikes) {
+			ids.add(bike.get("id").asInt());
+			names.add(bike.get("name").asText());
+		}
+		assertEquals(threads * bikesPerThread, ids.size());
+		assertEquals(threads * bikesPerThread, names.size());
+		for (int id = 1; id <= threads * bikesPerThread; id++) {
+			assertEquals(200, client.get("/hello/" + id).status());
+		}
 	}
 }
@@ -0,0 +1,282 @@
+package sample.bikes;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.junit.Test;
+import sample.Json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BikeServiceTest {
+
+	private final BikeService bikeService = new BikeService();
+
+	@Test
+	public void findAllReturnsTheSameSnapshotUntilTheNextWrite() {
+		bikeService.create(new BikeView("foo"));
+
+		List<Bike> snapshot = bikeService.findAll();
+		assertSame(snapshot, bikeService.findAll());
+
+		bikeService.create(new BikeView("bar"));
+		assertEquals(1, snapshot.size());
+		assertEquals(2, bikeService.findAll().size());
+	}
+
+	@Test
+	public void snapshotsKeepTheirContentAcrossTrieLevels() {
+		int count = 40_000;
+		List<Bike> half = null;
+		for (int i = 0; i < count; i++) {
+			bikeService.create(new BikeView("bike-" + i));
+			if (i == count / 2) {
+				half = bikeService.findAll();
+			}
+		}
+
+		List<Bike> all = bikeService.findAll();
+		assertEquals(count, all.size());
+		Iterator<Bike> iterator = all.iterator();
+		for (int i = 0; i < count; i++) {
+			Bike bike = iterator.next();
+			assertEquals(Integer.valueOf(i + 1), bike.getId());
+			assertEquals("bike-" + i, bike.getName());
+			assertSame(bike, all.get(i));
+			assertSame(bike, bikeService.findById(i + 1));
+		}
+		assertFalse(iterator.hasNext());
+		assertEquals(count / 2 + 1, half.size());
+		assertEquals("bike-" + count / 2, half.get(count / 2).getName());
+		assertNull(bikeService.findById(count + 1));
+	}
+
+	@Test
+	public void findsBikesByNameAndPrefixInIdOrder() {
+		for (String name : Arrays.asList("road", "roadster", "mountain", "road", "ro", "bmx")) {
+			bikeService.create(new BikeView(name));
+		}
+		bikeService.create(new BikeView(null));
+
+		assertEquals(Arrays.asList(1, 4), ids(bikeService.findByName("road")));
+		assertEquals(Arrays.asList(), ids(bikeService.findByName("roa")));
+		assertEquals(Arrays.asList(1, 2, 4, 5), ids(bikeService.findByNamePrefix("ro")));
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), ids(bikeService.findByNamePrefix("")));
+		assertEquals(Arrays.asList(), ids(bikeService.findByNamePrefix("s")));
+	}
+
+	@Test
+	public void concurrentWritersOnStripesNeverExposeGaps() throws Exception {
+		BikeService striped = new BikeService(new InMemoryBikeRepository(), null, 4, false);
+		int threads = 8;
+		int rounds = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			writers.add(executor.submit(() -> {
+				for (int i = 0; i < rounds; i++) {
+					if (i % 10 == 0) {
+						striped.createAll(Arrays.asList(new BikeView("batch-" + thread), new BikeView("batch-" + thread), new BikeView("batch-" + thread)));
+					} else {
+						striped.create(new BikeView("bike-" + thread));
+					}
+					List<Bike> snapshot = striped.findAll();
+					for (int j = Math.max(0, snapshot.size() - 5); j < snapshot.size(); j++) {
+						assertEquals(Integer.valueOf(j + 1), snapshot.get(j).getId());
+					}
+				}
+			}));
+		}
+		for (Future<?> writer : writers) {
+			writer.get();
+		}
+		executor.shutdown();
+
+		int expected = threads * (rounds + rounds / 10 * 2);
+		List<Bike> all = striped.findAll();
+		assertEquals(expected, all.size());
+		int id = 1;
+		for (Bike bike : all) {
+			assertEquals(Integer.valueOf(id++), bike.getId());
+		}
+		assertEquals(rounds / 10 * 3, striped.findByName("batch-3").size());
+		assertEquals(threads * (rounds - rounds / 10), striped.findByNamePrefix("bike-").size());
+	}
+
+	@Test
+	public void concurrentWritersOfTheSameNameAreAllIndexed() throws Exception {
+		BikeService striped = new BikeService(new InMemoryBikeRepository(), null, 4, false);
+		int threads = 8;
+		int rounds = 1000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			writers.add(executor.submit(() -> {
+				for (int i = 0; i < rounds; i++) {
+					striped.create(new BikeView(i % 2 == 0 ? "road" : null));
+				}
+			}));
+		}
+		for (Future<?> writer : writers) {
+			writer.get();
+		}
+		executor.shutdown();
+
+		List<Bike> road = striped.findByName("road");
+		assertEquals(threads * rounds / 2, road.size());
+		for (int i = 1; i < road.size(); i++) {
+			assertTrue(road.get(i - 1).getId() < road.get(i).getId());
+		}
+		List<Bike> sorted = striped.findSortedByName(striped.snapshot(), false, Integer.MAX_VALUE);
+		assertEquals(threads * rounds, sorted.size());
+		assertNull(sorted.get(threads * rounds / 2).getName());
+	}
+
+	@Test
+	public void batchesPostASingleEvent() {
+		EventBus eventBus = new EventBus();
+		List<BikeCreated> events = new ArrayList<>();
+		eventBus.register(new Object() {
+			@Subscribe
+			public void onCreated(BikeCreated event) {
+				events.add(event);
+			}
+		});
+		BikeService withEvents = new BikeService(new InMemoryBikeRepository(), eventBus);
+
+		withEvents.createAll(Arrays.asList(new BikeView("foo"), new BikeView("bar"), new BikeView("baz")));
+		withEvents.createAll(Collections.emptyList());
+		withEvents.create(new BikeView("qux"));
+
+		assertEquals(Arrays.asList(3, 4), events.stream().map(event -> event.getBike().getId()).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void changesOutsideTheWindowAskForAFullReload() {
+		List<BikeView> views = new ArrayList<>();
+		for (int i = 0; i < BikeService.CHANGE_WINDOW + 1; i++) {
+			views.add(new BikeView("bike-" + i));
+		}
+		bikeService.createAll(views);
+
+		assertNull(bikeService.findChangesSince(0));
+		assertEquals(BikeService.CHANGE_WINDOW, bikeService.findChangesSince(1).size());
+		assertEquals(Arrays.asList(BikeService.CHANGE_WINDOW + 1), ids(bikeService.findChangesSince(BikeService.CHANGE_WINDOW)));
+		assertNull(bikeService.findChangesSince(BikeService.CHANGE_WINDOW + 2));
+		try {
+			bikeService.findChangesSince(-1);
+			fail("Found changes since a negative version");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void offHeapBikesReadLikeHeapBikes() {
+		BikeService heap = new BikeService(new InMemoryBikeRepository(), null, 3, false);
+		BikeService offHeap = new BikeService(new InMemoryBikeRepository(), null, 3, true);
+		char[] huge = new char[OffHeapBikeList.ARENA_SIZE];
+		Arrays.fill(huge, 'x');
+		List<BikeView> views = new ArrayList<>();
+		for (int i = 0; i < 3 * OffHeapBikeList.ADDRESSES_PER_BUFFER + 5; i++) {
+			views.add(new BikeView(i % 1000 == 0 ? null : "bike-\u00fc-" + i));
+		}
+		views.add(new BikeView(new String(huge)));
+		views.add(new BikeView("last"));
+		heap.createAll(views);
+		offHeap.createAll(views);
+
+		assertEquals(Json.encode(heap.findAll()), Json.encode(offHeap.findAll()));
+		assertEquals(new String(huge), offHeap.findById(views.size() - 1).getName());
+		assertEquals("last", offHeap.findById(views.size()).getName());
+		assertEquals(Arrays.asList(1002), ids(offHeap.findByName("bike-\u00fc-1001")));
+	}
+
+	@Test
+	public void offHeapBuffersGrowWithTheList() {
+		OffHeapBikeList bikes = OffHeapBikeList.empty();
+		List<OffHeapBikeList> versions = new ArrayList<>();
+		for (int i = 0; i < OffHeapBikeList.MIN_ADDRESSES_PER_BUFFER * 3; i++) {
+			Bike bike = new Bike("bike-" + i);
+			bike.id = i + 1;
+			bikes = bikes.append(bike);
+			versions.add(bikes);
+		}
+
+		assertEquals(OffHeapBikeList.MIN_ARENA_SIZE + OffHeapBikeList.MIN_ADDRESSES_PER_BUFFER * 8, versions.get(0).allocatedBytes());
+		for (int i = 0; i < versions.size(); i++) {
+			// every version still reads its records after the buffers it shares have been replaced
+			assertEquals("bike-" + i, versions.get(i).get(i).getName());
+			assertEquals(Integer.valueOf(1), versions.get(i).get(0).getId());
+		}
+		assertTrue(bikes.allocatedBytes() < OffHeapBikeList.ARENA_SIZE / 16);
+	}
+
+	@Test
+	public void bikesWithTheSameNameShareOneString() {
+		bikeService.create(new BikeView(new String("road")));
+		bikeService.createAll(Arrays.asList(new BikeView(new String("road")), new BikeView("bmx")));
+
+		assertSame(bikeService.findById(1).getName(), bikeService.findById(2).getName());
+		NamePool namePool = bikeService.getNamePool();
+		assertEquals(1, namePool.getHits());
+		assertEquals(2, namePool.getMisses());
+		assertEquals(24 + 24, namePool.getBytesSaved());
+
+		BikeService offHeap = new BikeService(new InMemoryBikeRepository(), null, 2, true);
+		offHeap.createAll(Arrays.asList(new BikeView("road"), new BikeView("road")));
+		assertEquals(0, offHeap.getNamePool().getHits() + offHeap.getNamePool().getMisses());
+	}
+
+	@Test
+	public void topKMatchesAFullSort() {
+		Random random = new Random(42);
+		List<Bike> bikes = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			Bike bike = new Bike(random.nextInt(10) == 0 ? null : Integer.toString(random.nextInt(100), 36));
+			bike.id = i + 1;
+			bikes.add(bike);
+		}
+		Comparator<Bike> byName = Comparator.comparing(Bike::getName, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+			.thenComparing(Bike::getId);
+		List<Bike> sorted = new ArrayList<>(bikes);
+		sorted.sort(byName);
+
+		for (int limit : new int[] { 1, 7, 1000, 2000 }) {
+			assertEquals(sorted.subList(0, Math.min(limit, sorted.size())), BikeService.findTop(bikes, byName, limit));
+		}
+	}
+
+	@Test
+	public void sortedByNameMatchesAFullSort() {
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			bikeService.create(new BikeView(random.nextInt(10) == 0 ? null : Integer.toString(random.nextInt(100), 36)));
+		}
+		List<Bike> sorted = new ArrayList<>(bikeService.findAll());
+		sorted.sort(Comparator.comparing(Bike::getName, Comparator.nullsLast(Comparator.<String>naturalOrder())));
+
+		assertEquals(sorted.subList(0, 50), bikeService.findSortedByName(bikeService.snapshot(), false, 50));
+		assertEquals(sorted, bikeService.findSortedByName(bikeService.snapshot(), false, Integer.MAX_VALUE));
+	}
+
+	private static List<Integer> ids(List<Bike> bikes) {
+		return bikes.stream().map(Bike::getId).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,117 @@
+package sample.bikes;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BikeStorageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void bikesSurviveARestartWithoutCheckpoint() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			bikeService.create(new BikeView("foo"));
+			bikeService.create(new BikeView(null));
+		}
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			assertEquals(2, bikeService.findAll().size());
+			assertEquals("foo", bikeService.findById(1).getName());
+			assertNull(bikeService.findById(2).getName());
+		}
+	}
+
+	@Test
+	public void checkpointReplacesTheLogWithASnapshot() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		int count = 40_000;
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			for (int i = 0; i < count; i++) {
+				bikeService.create(new BikeView("bike-" + i));
+			}
+			bikeService.checkpoint().get();
+			assertEquals(Arrays.asList("log-40001.bin", "snapshot-40000.bin"), files(folder.getRoot()));
+
+			bikeService.create(new BikeView("after checkpoint"));
+		}
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			List<Bike> bikes = bikeService.findAll();
+			assertEquals(count + 1, bikes.size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(Integer.valueOf(i + 1), bikes.get(i).getId());
+				assertEquals("bike-" + i, bikes.get(i).getName());
+			}
+			assertEquals("after checkpoint", bikeService.findById(count + 1).getName());
+
+			bikeService.create(new BikeView("after restart"));
+			assertEquals("after restart", bikeService.findById(count + 2).getName());
+			bikeService.checkpoint().get();
+			assertEquals(Arrays.asList("log-40003.bin", "snapshot-40002.bin"), files(folder.getRoot()));
+		}
+	}
+
+	@Test
+	public void offHeapServiceLoadsAndCheckpointsTheSameFiles() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			bikeService.create(new BikeView("foo"));
+			bikeService.checkpoint().get();
+			bikeService.create(new BikeView(null));
+		}
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null, 2, true);
+			bikeService.create(new BikeView("bar"));
+			bikeService.checkpoint().get();
+		}
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			assertEquals(3, bikeService.findAll().size());
+			assertEquals("foo", bikeService.findById(1).getName());
+			assertNull(bikeService.findById(2).getName());
+			assertEquals("bar", bikeService.findById(3).getName());
+		}
+	}
+
+	@Test
+	public void failedSnapshotLeavesNoTemporaryFile() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (BikeStorage storage = BikeStorage.open(directory, BikeLog.Fsync.OS, 1)) {
+			BikeService bikeService = new BikeService(storage, null);
+			bikeService.create(new BikeView("foo"));
+			bikeService.create(new BikeView("bar"));
+			// a directory that is not empty cannot be replaced by the snapshot
+			assertTrue(directory.resolve("snapshot-2.bin").resolve("in-the-way").toFile().mkdirs());
+			try {
+				bikeService.checkpoint().get();
+				fail("Replaced a directory with the snapshot");
+			} catch (ExecutionException expected) {
+			}
+			assertEquals(Arrays.asList("log-1.bin", "log-3.bin", "snapshot-2.bin"), files(folder.getRoot()));
+		}
+	}
+
+	private static List<String> files(File directory) {
+		String[] names = directory.list();
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+}
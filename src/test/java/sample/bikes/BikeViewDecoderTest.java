@@ -0,0 +1,165 @@
+package sample.bikes;
+
+import org.junit.Test;
+import sample.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BikeViewDecoderTest {
+
+	private static final String NAME_CHARS = "abcXYZ 019-_\"\\/\b\f\n\r\t\u0001\u007fäü€\u2028\uD83D\uDEB2";
+
+	@Test
+	public void commonBodiesTakeTheFastPath() {
+		assertEquals("foo", fast("{\"name\": \"foo\"}").getName());
+		assertEquals("foo", fast(" \r\n{\t\"name\" :\"foo\" }\n").getName());
+		assertEquals("a\"b\\c/d\be\ff\ng\rh\ti\u00e9", fast("{\"name\":\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\\u00E9\"}").getName());
+		assertEquals("Fahrrad \u00fc\u20ac\uD83D\uDEB2", fast("{\"name\":\"Fahrrad \u00fc\u20ac\uD83D\uDEB2\"}").getName());
+		assertEquals("", fast("{\"name\":\"\"}").getName());
+		assertNull(fast("{\"name\":null}").getName());
+		assertNull(fast("{}").getName());
+	}
+
+	@Test
+	public void unusualBodiesAreLeftToJackson() {
+		String[] bodies = {
+			"", "[]", "null", "{\"name\":1}", "{\"name\":\"foo\",\"name\":\"bar\"}", "{\"n\\u0061me\":\"foo\"}",
+			"{\"name\":\"foo\"} trailing", "{\"name\":\"foo\"", "{\"name\":\"\\x\"}", "{\"name\":\"\\u12\"}",
+			"{\"name\":\"tab\there\"}", "\uFEFF{\"name\":\"foo\"}", "{\"other\":\"foo\"}"
+		};
+		for (String body : bodies) {
+			assertNull(body, BikeViewDecoder.tryDecode(body.getBytes(StandardCharsets.UTF_8)));
+		}
+		assertNull(BikeViewDecoder.tryDecode(new byte[] { '{', '"', 'n', 'a', 'm', 'e', '"', ':', '"', (byte) 0xc0, (byte) 0xaf, '"', '}' }));
+		assertNull(BikeViewDecoder.tryDecode(new byte[] { '{', '"', 'n', 'a', 'm', 'e', '"', ':', '"', (byte) 0xed, (byte) 0xa0, (byte) 0x80, '"', '}' }));
+
+		assertEquals("1", BikeViewDecoder.decode("{\"name\":1}".getBytes(StandardCharsets.UTF_8)).getName());
+		assertEquals("foo", BikeViewDecoder.decode("{\"n\\u0061me\":\"foo\"}".getBytes(StandardCharsets.UTF_8)).getName());
+	}
+
+	@Test
+	public void longNamesDoNotKeepTheirBuffer() {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < BikeViewDecoder.MAX_SCRATCH_LENGTH * 3; i++) {
+			name.append((char) ('a' + i % 26));
+		}
+		assertEquals(name.toString(), fast("{\"name\":\"" + name + "\"}").getName());
+		assertEquals("foo", fast("{\"name\":\"foo\"}").getName());
+	}
+
+	@Test
+	public void decodesLikeJackson() {
+		Random random = new Random(42);
+		int fastPathTaken = 0;
+		int rounds = 20_000;
+		for (int round = 0; round < rounds; round++) {
+			byte[] body = mutate(random, randomBody(random).getBytes(StandardCharsets.UTF_8));
+			BikeView fast = BikeViewDecoder.tryDecode(body);
+			BikeView jackson;
+			try {
+				jackson = Json.parse(body, BikeView.class);
+			} catch (RuntimeException e) {
+				if (fast != null) {
+					fail("Jackson rejects what the fast path took: " + new String(body, StandardCharsets.UTF_8));
+				}
+				continue;
+			}
+			if (fast != null) {
+				fastPathTaken++;
+				assertEquals(new String(body, StandardCharsets.UTF_8), jackson.getName(), fast.getName());
+			}
+			assertEquals(jackson.getName(), BikeViewDecoder.decode(body).getName());
+		}
+		assertTrue("fast path taken " + fastPathTaken + " times", fastPathTaken > rounds / 4);
+	}
+
+	private static BikeView fast(String body) {
+		BikeView view = BikeViewDecoder.tryDecode(body.getBytes(StandardCharsets.UTF_8));
+		assertNotNull(body, view);
+		return view;
+	}
+
+	private static String randomBody(Random random) {
+		StringBuilder body = new StringBuilder();
+		whitespace(random, body).append('{');
+		whitespace(random, body);
+		switch (random.nextInt(8)) {
+			case 0:
+				break;
+			case 1:
+				body.append("\"name\"");
+				whitespace(random, body).append(':');
+				whitespace(random, body).append("null");
+				break;
+			case 2:
+				body.append("\"name\":").append(random.nextInt(100)).append(",\"other\":true");
+				break;
+			default:
+				body.append("\"name\"");
+				whitespace(random, body).append(':');
+				whitespace(random, body).append('"');
+				int length = random.nextInt(12);
+				for (int i = 0; i < length; i++) {
+					appendChar(random, body, NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length())));
+				}
+				body.append('"');
+		}
+		whitespace(random, body).append('}');
+		return whitespace(random, body).toString();
+	}
+
+	/**
+	 * Escapes what JSON requires to be escaped and some of the rest, leaving the odd control character raw.
+	 */
+	private static void appendChar(Random random, StringBuilder body, char c) {
+		boolean escape = c == '"' || c == '\\' || (c < 0x20 && random.nextInt(10) > 0) || random.nextInt(10) == 0;
+		if (!escape) {
+			body.append(c);
+		} else if (c == '"' || c == '\\' || c == '/') {
+			body.append('\\').append(c);
+		} else {
+			body.append(String.format(random.nextBoolean() ? "\\u%04x" : "\\u%04X", (int) c));
+		}
+	}
+
+	private static StringBuilder whitespace(Random random, StringBuilder body) {
+		while (random.nextInt(4) == 0) {
+			body.append(" \t\n\r".charAt(random.nextInt(4)));
+		}
+		return body;
+	}
+
+	/**
+	 * Leaves most bodies alone and breaks the others by overwriting, dropping or inserting a byte.
+	 */
+	private static byte[] mutate(Random random, byte[] body) {
+		if (random.nextInt(3) > 0 || body.length == 0) {
+			return body;
+		}
+		int position = random.nextInt(body.length);
+		byte value = (byte) random.nextInt(256);
+		switch (random.nextInt(3)) {
+			case 0:
+				body[position] = value;
+				return body;
+			case 1:
+				byte[] shorter = new byte[body.length - 1];
+				System.arraycopy(body, 0, shorter, 0, position);
+				System.arraycopy(body, position + 1, shorter, position, shorter.length - position);
+				return shorter;
+			default:
+				byte[] longer = new byte[body.length + 1];
+				System.arraycopy(body, 0, longer, 0, position);
+				longer[position] = value;
+				System.arraycopy(body, position, longer, position + 1, body.length - position);
+				return longer;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package sample.bikes;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JdbcBikeRepositoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void bikesSurviveARestart() {
+		String url = "jdbc:h2:" + folder.getRoot().toPath().resolve("bikes");
+		try (JdbcBikeRepository repository = JdbcBikeRepository.open(url, 2)) {
+			BikeService bikeService = new BikeService(repository, null);
+			bikeService.create(new BikeView("foo"));
+			List<BikeView> views = new ArrayList<>();
+			for (int i = 0; i < 2500; i++) {
+				views.add(new BikeView(i == 0 ? null : "bike-" + i));
+			}
+			bikeService.createAll(views);
+		}
+		try (JdbcBikeRepository repository = JdbcBikeRepository.open(url, 2)) {
+			BikeService bikeService = new BikeService(repository, null);
+			assertEquals(2501, bikeService.findAll().size());
+			assertEquals("foo", bikeService.findById(1).getName());
+			assertNull(bikeService.findById(2).getName());
+			assertEquals("bike-2499", bikeService.findById(2501).getName());
+
+			bikeService.create(new BikeView("after restart"));
+			assertEquals(Integer.valueOf(2502), bikeService.findByName("after restart").get(0).getId());
+		}
+	}
+
+	@Test
+	public void failedAppendStoresNothing() {
+		try (JdbcBikeRepository repository = JdbcBikeRepository.open("jdbc:h2:mem:", 1)) {
+			repository.append(Arrays.asList(bike(1, "foo")));
+			try {
+				repository.append(Arrays.asList(bike(2, "bar"), bike(1, "duplicate")));
+				fail();
+			} catch (BikeRepository.PartialAppendException e) {
+				assertEquals(0, e.getStored());
+			}
+			List<Bike> bikes = new ArrayList<>();
+			repository.load(bikes::add);
+			assertEquals(1, bikes.size());
+			assertEquals("foo", bikes.get(0).getName());
+		}
+	}
+
+	private static Bike bike(int id, String name) {
+		Bike bike = new Bike(name);
+		bike.id = id;
+		return bike;
+	}
+}
@@ -0,0 +1,57 @@
+package sample.bikes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NameIndexTest {
+
+	@Test
+	public void keepsIdsSortedWhenTheyArriveOutOfOrder() {
+		NameIndex index = new NameIndex();
+		int count = 5000;
+		// every block of ten ids arrives backwards, like racing writers would add them
+		for (int block = 0; block < count; block += 10) {
+			for (int id = block + 10; id > block; id--) {
+				index.add(bike("road", id));
+			}
+		}
+
+		int[] expected = new int[count];
+		for (int i = 0; i < count; i++) {
+			expected[i] = i + 1;
+		}
+		assertArrayEquals(expected, index.exact("road", Integer.MAX_VALUE));
+		assertArrayEquals(Arrays.copyOf(expected, 1234), index.exact("road", 1234));
+		assertArrayEquals(Arrays.copyOf(expected, 100), index.sortedByName(false, Integer.MAX_VALUE, 100));
+	}
+
+	@Test(timeout = 10_000)
+	public void addingToOneNameTakesConstantTime() {
+		NameIndex index = new NameIndex();
+		int count = 2_000_000;
+		for (int id = 1; id <= count; id++) {
+			index.add(bike(null, id));
+			index.add(bike("road", id));
+		}
+
+		int[] road = index.exact("road", Integer.MAX_VALUE);
+		assertEquals(count, road.length);
+		for (int i = 0; i < count; i++) {
+			assertEquals(i + 1, road[i]);
+		}
+		int[] sorted = index.sortedByName(false, count / 2, Integer.MAX_VALUE);
+		assertEquals(count, sorted.length);
+		assertEquals(count / 2, sorted[count / 2 - 1]);
+		assertEquals(1, sorted[count / 2]);
+	}
+
+	private static Bike bike(String name, int id) {
+		Bike bike = new Bike(name);
+		bike.id = id;
+		return bike;
+	}
+}